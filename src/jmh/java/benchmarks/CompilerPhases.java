@@ -0,0 +1,123 @@
+package benchmarks;
+
+import analysis.Analysis;
+import frontend.NQJFrontend;
+import java_cup.runtime.ComplexSymbolFactory;
+import java_cup.runtime.Symbol;
+import minillvm.analysis.Checks;
+import minillvm.ast.Prog;
+import minillvm.printer.PrettyPrinter;
+import notquitejava.ast.NQJProgram;
+import notquitejava.syntax.Lexer;
+import notquitejava.syntax.NotQuiteJavaParserSym;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import translation.Translator;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the single phases of the compiler.
+ *
+ * Every phase gets the output of the previous phases prepared in the setup,
+ * so only the phase itself is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompilerPhases {
+
+    @Param({"small", "medium", "huge", "generated-100", "generated-200", "generated-800"})
+    public String corpus;
+
+    private String source;
+    private NQJProgram parsed;
+    private NQJProgram analysed;
+    private Prog translated;
+
+    /**
+     * Prepares the inputs of all phases.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        source = Corpus.load(corpus);
+        parsed = new NQJFrontend().parseString(source);
+        analysed = new NQJFrontend().parseString(source);
+        Analysis analysis = new Analysis(analysed);
+        analysis.check();
+        if (!analysis.getTypeErrors().isEmpty()) {
+            throw new IllegalStateException("Corpus " + corpus + " has type errors: "
+                    + analysis.getTypeErrors());
+        }
+        translated = new Translator(analysed).translate();
+    }
+
+    /**
+     * Lexing only, returns the number of tokens.
+     */
+    @Benchmark
+    public int lex() throws IOException {
+        Lexer lexer = new Lexer(new ComplexSymbolFactory(), new StringReader(source));
+        int tokens = 0;
+        Symbol s = lexer.next_token();
+        while (s.sym != NotQuiteJavaParserSym.EOF) {
+            tokens++;
+            s = lexer.next_token();
+        }
+        return tokens;
+    }
+
+    @Benchmark
+    public NQJProgram parse() throws Exception {
+        return new NQJFrontend().parseString(source);
+    }
+
+    /**
+     * Name and type analysis of an already parsed program.
+     */
+    @Benchmark
+    public Analysis analysis() {
+        Analysis analysis = new Analysis(parsed);
+        analysis.check();
+        return analysis;
+    }
+
+    @Benchmark
+    public Prog translate() {
+        return new Translator(analysed).translate();
+    }
+
+    /**
+     * The llvm type checks, which include printing the program once.
+     */
+    @Benchmark
+    public Prog checks() {
+        new Checks().checkProgram(translated);
+        return translated;
+    }
+
+    /**
+     * Printing the llvm module, without keeping the output.
+     */
+    @Benchmark
+    public Prog print() throws IOException {
+        PrettyPrinter.printTo(translated, Writer.nullWriter());
+        return translated;
+    }
+}
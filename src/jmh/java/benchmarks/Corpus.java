@@ -0,0 +1,53 @@
+package benchmarks;
+
+import notquitejava.generator.ProgramGenerator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * NQJ inputs of different sizes for the benchmarks.
+ */
+public class Corpus {
+
+    /**
+     * Source of the corpus with the given name: small, medium, huge
+     * or generated-N for a generated program with N classes.
+     */
+    public static String load(String name) {
+        switch (name) {
+            case "small":
+                return read("testdata/translation/classes/portfolio_ListImpl.java");
+            case "medium":
+                return read("testdata/translation/classes/BinaryTree.java");
+            case "huge":
+                return generated(400);
+            default:
+                if (name.startsWith("generated-")) {
+                    return generated(Integer.parseInt(name.substring("generated-".length())));
+                }
+                throw new IllegalArgumentException("Unknown corpus " + name);
+        }
+    }
+
+    private static String read(String path) {
+        try {
+            return Files.readString(Paths.get(path));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * A generated program with the given number of classes in inheritance chains
+     * of depth 4, the size grows linearly with the number of classes.
+     */
+    static String generated(int classes) {
+        return new ProgramGenerator(classes)
+                .classes(classes)
+                .inheritanceDepth(4)
+                .generate();
+    }
+}
@@ -0,0 +1,331 @@
+package benchmarks;
+
+import main.LlvmToolchain;
+import main.NotQuiteJavaCompiler;
+import main.OptLevel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Measures the runtime of the code generated for the programs in testdata/benchmarks.
+ *
+ * Every program is compiled to a native executable at each optimization level and
+ * run a few times. The median wall time and, if {@code perf} is available, the number
+ * of retired user space instructions are compared against the stored baseline.
+ * The output of every level must equal the output at -O0.
+ *
+ * <p>Usage: {@code RuntimeBenchmark [--runs n] [--threshold percent] [--update-baseline]
+ * [-O0..-O3]... [program.java]...}
+ *
+ * <p>Exits with 1 if a program regressed by more than the threshold, printed
+ * a different output or has no baseline to compare against.
+ */
+public class RuntimeBenchmark {
+    private static final Path PROGRAMS = Paths.get("testdata/benchmarks");
+    private static final Path BASELINE = PROGRAMS.resolve("baseline.tsv");
+    private static final Path WORK_DIR = Paths.get("build/reports/runtime");
+
+    private int runs = 5;
+    private double thresholdPercent = 10;
+    private boolean perfAvailable;
+
+    /**
+     * Measurements of one program at one optimization level.
+     */
+    static class Measurement {
+        final String program;
+        final OptLevel level;
+        final long wallMicros;
+        /** Retired instructions, or -1 if they could not be counted. */
+        final long instructions;
+
+        Measurement(String program, OptLevel level, long wallMicros, long instructions) {
+            this.program = program;
+            this.level = level;
+            this.wallMicros = wallMicros;
+            this.instructions = instructions;
+        }
+
+        String key() {
+            return program + "\t" + level;
+        }
+    }
+
+    /**
+     * Entry point, see the class comment for the arguments.
+     */
+    public static void main(String[] args) throws Exception {
+        RuntimeBenchmark benchmark = new RuntimeBenchmark();
+        boolean updateBaseline = false;
+        List<OptLevel> levels = new ArrayList<>();
+        List<Path> programs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--runs") && i + 1 < args.length) {
+                benchmark.runs = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--threshold") && i + 1 < args.length) {
+                benchmark.thresholdPercent = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("--update-baseline")) {
+                updateBaseline = true;
+            } else if (OptLevel.parse(args[i]) != null) {
+                levels.add(OptLevel.parse(args[i]));
+            } else {
+                programs.add(Paths.get(args[i]));
+            }
+        }
+        if (levels.isEmpty()) {
+            levels = Arrays.asList(OptLevel.values());
+        }
+        if (programs.isEmpty()) {
+            try (Stream<Path> files = Files.list(PROGRAMS)) {
+                programs = files.filter(p -> p.toString().endsWith(".java"))
+                        .sorted()
+                        .collect(Collectors.toList());
+            }
+        }
+
+        Files.createDirectories(WORK_DIR);
+        benchmark.perfAvailable = benchmark.checkPerf();
+        List<Measurement> results = new ArrayList<>();
+        boolean failed = false;
+        for (Path program : programs) {
+            String expectedOutput = null;
+            for (OptLevel level : levels) {
+                Path exe = benchmark.compile(program, level);
+                String output = benchmark.run(exe).output;
+                if (expectedOutput == null) {
+                    expectedOutput = output;
+                } else if (!output.equals(expectedOutput)) {
+                    System.out.println(program + " " + level + ": output differs from "
+                            + levels.get(0) + "\n" + output + "\nexpected:\n" + expectedOutput);
+                    failed = true;
+                }
+                Measurement m = benchmark.measure(program.getFileName().toString(), level, exe);
+                results.add(m);
+                System.out.println(String.format("%-22s %s %10d us %14d instructions",
+                        m.program, m.level, m.wallMicros, m.instructions));
+            }
+        }
+
+        Files.writeString(WORK_DIR.resolve("results.json"), toJson(results));
+        if (updateBaseline) {
+            writeBaseline(results);
+            System.out.println("Baseline written to " + BASELINE);
+        } else if (Files.exists(BASELINE)) {
+            failed |= benchmark.compareToBaseline(results, readBaseline());
+        } else {
+            // nothing to compare against is a failure, not a pass
+            System.out.println("No baseline at " + BASELINE
+                    + ", create it with --update-baseline on the reference machine");
+            failed = true;
+        }
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * Compiles a program to a native executable in the working directory.
+     */
+    Path compile(Path program, OptLevel level) throws Exception {
+        NotQuiteJavaCompiler compiler = new NotQuiteJavaCompiler();
+        compiler.setOptLevel(level);
+        compiler.compileFile(program.toFile());
+        if (!compiler.getSyntaxErrors().isEmpty() || !compiler.getTypeErrors().isEmpty()) {
+            throw new IllegalStateException("Benchmark " + program + " does not compile:\n"
+                    + compiler.getSyntaxErrors() + compiler.getTypeErrors());
+        }
+        String name = program.getFileName().toString().replaceAll("\\.java$", "");
+        Path exe = WORK_DIR.resolve(name + "_" + level + ".exe").toAbsolutePath();
+        new LlvmToolchain().compileExecutable(compiler::printLlvm, exe, level);
+        return exe;
+    }
+
+    /**
+     * Runs the executable once for warmup and then {@link #runs} times,
+     * the median is reported.
+     */
+    Measurement measure(String program, OptLevel level, Path exe) throws Exception {
+        run(exe);
+        long[] wall = new long[runs];
+        long[] instructions = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            Run r = run(exe);
+            wall[i] = r.wallNanos / 1000;
+            instructions[i] = r.instructions;
+        }
+        return new Measurement(program, level, median(wall), median(instructions));
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    /**
+     * Result of a single execution.
+     */
+    private static class Run {
+        String output;
+        long wallNanos;
+        long instructions = -1;
+    }
+
+    /**
+     * Runs the executable, under perf stat if it is available.
+     */
+    private Run run(Path exe) throws IOException, InterruptedException {
+        Path perfOut = null;
+        List<String> command = new ArrayList<>();
+        if (perfAvailable) {
+            perfOut = Files.createTempFile(WORK_DIR, "perf", ".csv");
+            command.addAll(List.of("perf", "stat", "-x,", "-e", "instructions:u",
+                    "-o", perfOut.toString(), "--"));
+        }
+        command.add(exe.toString());
+
+        Run result = new Run();
+        long start = System.nanoTime();
+        Process p = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        byte[] out;
+        try (InputStream in = p.getInputStream()) {
+            out = in.readAllBytes();
+        }
+        int exitCode = p.waitFor();
+        result.wallNanos = System.nanoTime() - start;
+        result.output = new String(out, StandardCharsets.UTF_8);
+        if (exitCode != 0) {
+            throw new IllegalStateException(exe + " failed with exit code " + exitCode);
+        }
+        if (perfOut != null) {
+            result.instructions = parsePerfInstructions(Files.readAllLines(perfOut));
+            Files.delete(perfOut);
+        }
+        return result;
+    }
+
+    /**
+     * Extracts the counter from perf's CSV output, e.g. {@code 123456,,instructions:u,...}.
+     */
+    static long parsePerfInstructions(List<String> lines) {
+        for (String line : lines) {
+            String[] parts = line.split(",");
+            if (parts.length > 2 && parts[2].startsWith("instructions")) {
+                try {
+                    return Long.parseLong(parts[0]);
+                } catch (NumberFormatException e) {
+                    // "<not supported>" or "<not counted>"
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private boolean checkPerf() {
+        try {
+            Process p = new ProcessBuilder("perf", "stat", "-x,", "-e", "instructions:u", "true")
+                    .redirectErrorStream(true)
+                    .start();
+            p.getInputStream().readAllBytes();
+            if (p.waitFor() == 0) {
+                return true;
+            }
+        } catch (IOException | InterruptedException e) {
+            // not installed
+        }
+        System.out.println("perf is not available, instructions are not counted");
+        return false;
+    }
+
+    /**
+     * Prints the changes against the baseline.
+     *
+     * @return true if a program got slower than the threshold allows
+     *     or has no baseline
+     */
+    boolean compareToBaseline(List<Measurement> results, Map<String, Measurement> baseline) {
+        boolean regressed = false;
+        for (Measurement m : results) {
+            Measurement base = baseline.get(m.key());
+            if (base == null) {
+                System.out.println(m.program + " " + m.level
+                        + ": not in baseline, run with --update-baseline");
+                regressed = true;
+                continue;
+            }
+            double wallChange = change(base.wallMicros, m.wallMicros);
+            String line = String.format("%-22s %s wall %+6.1f%%", m.program, m.level, wallChange);
+            // instruction counts are much less noisy, so they decide when available
+            double decisive = wallChange;
+            if (m.instructions >= 0 && base.instructions >= 0) {
+                double instrChange = change(base.instructions, m.instructions);
+                line += String.format(", instructions %+6.1f%%", instrChange);
+                decisive = instrChange;
+            }
+            if (decisive > thresholdPercent) {
+                line += "  REGRESSION";
+                regressed = true;
+            }
+            System.out.println(line);
+        }
+        return regressed;
+    }
+
+    private static double change(long before, long after) {
+        if (before == 0) {
+            return 0;
+        }
+        return 100.0 * (after - before) / before;
+    }
+
+    /**
+     * Reads the baseline, one tab separated line per program and level:
+     * program, level, wall time in microseconds and instructions.
+     */
+    static Map<String, Measurement> readBaseline() throws IOException {
+        Map<String, Measurement> result = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(BASELINE)) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\t");
+            Measurement m = new Measurement(parts[0], OptLevel.valueOf(parts[1]),
+                    Long.parseLong(parts[2]), Long.parseLong(parts[3]));
+            result.put(m.key(), m);
+        }
+        return result;
+    }
+
+    private static void writeBaseline(List<Measurement> results) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# program\tlevel\twallMicros\tinstructions\n");
+        for (Measurement m : results) {
+            sb.append(m.key()).append('\t').append(m.wallMicros)
+                    .append('\t').append(m.instructions).append('\n');
+        }
+        Files.writeString(BASELINE, sb.toString());
+    }
+
+    private static String toJson(List<Measurement> results) {
+        List<String> entries = new ArrayList<>();
+        for (Measurement m : results) {
+            entries.add("\n  {\"program\": \"" + m.program + "\", \"level\": \"" + m.level
+                    + "\", \"wallMicros\": " + m.wallMicros
+                    + ", \"instructions\": " + m.instructions + "}");
+        }
+        return "[" + String.join(",", entries) + "\n]\n";
+    }
+}
@@ -0,0 +1,52 @@
+package benchmarks;
+
+import main.NotQuiteJavaCompiler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiles generated programs of doubling size, to see how the compiler scales.
+ *
+ * The time per class should stay about the same from one size to the next,
+ * {@link CompilerPhases} shows which phase is responsible if it does not.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Scaling {
+
+    @Param({"25", "50", "100", "200", "400"})
+    public int classes;
+
+    private String source;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        source = Corpus.generated(classes);
+    }
+
+    /**
+     * Parsing, analysis and translation of the whole program.
+     */
+    @Benchmark
+    public NotQuiteJavaCompiler compile() throws Exception {
+        NotQuiteJavaCompiler compiler = new NotQuiteJavaCompiler();
+        compiler.compileString("Generated.java", source);
+        return compiler;
+    }
+}
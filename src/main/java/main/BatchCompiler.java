@@ -0,0 +1,304 @@
+package main;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compiles many NQJ files in parallel.
+ *
+ * Every unit runs its own frontend, analysis and translator on a work-stealing pool,
+ * so units do not share any compiler state.
+ */
+public class BatchCompiler {
+    private final Path outputDir;
+    private final int parallelism;
+    private CompilationCache cache;
+    private boolean writeReports = false;
+    private boolean buildExecutables = false;
+    private OptLevel optLevel = OptLevel.O0;
+    private boolean directSsa = false;
+    private boolean arenaAllocation = false;
+
+    public BatchCompiler(Path outputDir, int parallelism) {
+        this.outputDir = outputDir;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Entry point for the batch mode.
+     *
+     * Usage: {@code --batch [-j threads] [-o outputDir] [--cache dir [--cache-size mb]]
+     * [--report] [--exe] [-O0..-O3] [--ssa] [--arena] (directory | file | @fileList)...}
+     *
+     * @return the exit code, 0 iff all units compiled without errors
+     */
+    public static int run(String[] args) throws IOException, InterruptedException {
+        Path outputDir = Paths.get(".");
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        Path cacheDir = null;
+        long cacheMegabytes = 512;
+        boolean writeReports = false;
+        boolean buildExecutables = false;
+        OptLevel optLevel = OptLevel.O0;
+        boolean directSsa = false;
+        boolean arenaAllocation = false;
+        List<String> inputArgs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-j") && i + 1 < args.length) {
+                parallelism = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-o") && i + 1 < args.length) {
+                outputDir = Paths.get(args[++i]);
+            } else if (args[i].equals("--cache") && i + 1 < args.length) {
+                cacheDir = Paths.get(args[++i]);
+            } else if (args[i].equals("--cache-size") && i + 1 < args.length) {
+                cacheMegabytes = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--report")) {
+                writeReports = true;
+            } else if (args[i].equals("--exe")) {
+                buildExecutables = true;
+            } else if (OptLevel.parse(args[i]) != null) {
+                optLevel = OptLevel.parse(args[i]);
+            } else if (args[i].equals("--ssa")) {
+                directSsa = true;
+            } else if (args[i].equals("--arena")) {
+                arenaAllocation = true;
+            } else {
+                inputArgs.add(args[i]);
+            }
+        }
+
+        List<Path> inputs = collectInputs(inputArgs);
+        BatchCompiler batch = new BatchCompiler(outputDir, parallelism);
+        if (cacheDir != null) {
+            batch.setCache(new CompilationCache(cacheDir, cacheMegabytes * 1024 * 1024));
+        }
+        batch.setWriteReports(writeReports);
+        batch.setBuildExecutables(buildExecutables);
+        batch.setOptLevel(optLevel);
+        batch.setDirectSsa(directSsa);
+        batch.setArenaAllocation(arenaAllocation);
+        long start = System.nanoTime();
+        List<CompilationResult> results = batch.compileAll(inputs);
+        long elapsed = System.nanoTime() - start;
+
+        long failed = results.stream().filter(r -> !r.isSuccess()).count();
+        results.forEach(System.out::println);
+        System.out.println("Compiled " + results.size() + " units (" + failed + " failed) in "
+                + (elapsed / 1_000_000) + " ms using " + parallelism + " threads.");
+        if (batch.cache != null) {
+            System.out.println(batch.cache);
+        }
+        if (writeReports) {
+            List<CompilationReport> reports = results.stream()
+                    .map(CompilationResult::getReport)
+                    .collect(Collectors.toList());
+            Files.writeString(outputDir.resolve("report.json"),
+                    CompilationReport.aggregateJson(reports));
+        }
+        return failed == 0 ? 0 : 7;
+    }
+
+    /**
+     * Uses the given cache for all units, it is shared between the worker threads.
+     */
+    public void setCache(CompilationCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * If set, a JSON report with the phase measurements is written for every unit.
+     */
+    public void setWriteReports(boolean writeReports) {
+        this.writeReports = writeReports;
+    }
+
+    /**
+     * If set, every unit is also compiled to an executable with the llvm toolchain.
+     * The toolchain runs inside the unit's task, so independent units are linked
+     * concurrently, bounded by the pool's parallelism.
+     */
+    public void setBuildExecutables(boolean buildExecutables) {
+        this.buildExecutables = buildExecutables;
+    }
+
+    /**
+     * Optimization level for all units.
+     */
+    public void setOptLevel(OptLevel optLevel) {
+        this.optLevel = optLevel;
+    }
+
+    /**
+     * If set, all units are translated to SSA form directly.
+     */
+    public void setDirectSsa(boolean directSsa) {
+        this.directSsa = directSsa;
+    }
+
+    /**
+     * If set, all units allocate from the arena of the runtime.
+     */
+    public void setArenaAllocation(boolean arenaAllocation) {
+        this.arenaAllocation = arenaAllocation;
+    }
+
+    /**
+     * Collects the inputs given as directories (all .java files, recursively),
+     * plain files, or file lists prefixed with '@' (one path per line).
+     */
+    static List<Path> collectInputs(List<String> args) throws IOException {
+        List<Path> result = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("@")) {
+                for (String line : Files.readAllLines(Paths.get(arg.substring(1)))) {
+                    if (!line.isBlank()) {
+                        result.add(Paths.get(line.trim()));
+                    }
+                }
+            } else if (Files.isDirectory(Paths.get(arg))) {
+                try (Stream<Path> files = Files.walk(Paths.get(arg))) {
+                    result.addAll(files
+                            .filter(Files::isRegularFile)
+                            .filter(p -> p.toString().endsWith(".java"))
+                            .sorted()
+                            .collect(Collectors.toList()));
+                }
+            } else {
+                result.add(Paths.get(arg));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Compiles all inputs and returns their results in input order.
+     */
+    public List<CompilationResult> compileAll(List<Path> inputs) throws InterruptedException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<String> names = outputNames(inputs);
+            List<Callable<CompilationResult>> tasks = new ArrayList<>();
+            for (int i = 0; i < inputs.size(); i++) {
+                Path input = inputs.get(i);
+                String name = names.get(i);
+                tasks.add(() -> compileUnit(input, name));
+            }
+            List<CompilationResult> results = new ArrayList<>();
+            for (Future<CompilationResult> f : pool.invokeAll(tasks)) {
+                try {
+                    results.add(f.get());
+                } catch (ExecutionException e) {
+                    // compileUnit catches everything, so this cannot happen
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Compiles a single unit with a fresh compiler pipeline.
+     *
+     * The llvm code is written to {@code <name>.ll}; for failed units the diagnostics
+     * are written to {@code <name>.diag} instead.
+     */
+    CompilationResult compileUnit(Path input, String name) {
+        long start = System.nanoTime();
+        NotQuiteJavaCompiler compiler = new NotQuiteJavaCompiler();
+        compiler.setCache(cache);
+        compiler.setOptLevel(optLevel);
+        compiler.setDirectSsa(directSsa);
+        compiler.setArenaAllocation(arenaAllocation);
+        Path output = null;
+        Throwable internalError = null;
+        try {
+            compiler.compileFile(input.toFile());
+            if (compiler.getSyntaxErrors().isEmpty() && compiler.getTypeErrors().isEmpty()) {
+                output = outputFileFor(name, ".ll");
+                compiler.writeLlvmFile(output);
+                if (buildExecutables) {
+                    // feed the written file, the module is printed only once
+                    new LlvmToolchain().compileExecutable(
+                            LlvmToolchain.ModuleWriter.fromFile(output),
+                            outputFileFor(name, ".exe"), optLevel);
+                }
+            }
+        } catch (Exception | StackOverflowError e) {
+            internalError = e;
+        }
+        CompilationResult result = new CompilationResult(input, output,
+                compiler.getSyntaxErrors(), compiler.getTypeErrors(),
+                internalError, System.nanoTime() - start);
+        result.setReport(compiler.getReport());
+        if (writeReports) {
+            try {
+                Files.writeString(outputFileFor(name, ".report.json"),
+                        compiler.getReport().toJson());
+            } catch (IOException e) {
+                System.err.println("Cannot write report of " + input + ": " + e);
+            }
+        }
+        if (!result.isSuccess()) {
+            try {
+                Files.write(outputFileFor(name, ".diag"), result.getDiagnostics());
+            } catch (IOException e) {
+                System.err.println("Cannot write diagnostics of " + input + ": " + e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Names of the output files of the inputs, without extension. A name is the path
+     * relative to the common directory of all inputs, with the separators replaced by
+     * underscores. Names which are still taken, like the ones of inputs given twice,
+     * get a number appended, so that no unit overwrites the output of another.
+     */
+    static List<String> outputNames(List<Path> inputs) {
+        Path root = null;
+        for (int i = 0; i < inputs.size(); i++) {
+            Path parent = inputs.get(i).toAbsolutePath().normalize().getParent();
+            if (i == 0) {
+                root = parent;
+            }
+            while (root != null && (parent == null || !parent.startsWith(root))) {
+                root = root.getParent();
+            }
+        }
+        List<String> names = new ArrayList<>();
+        Set<String> taken = new HashSet<>();
+        for (Path input : inputs) {
+            Path path = input.toAbsolutePath().normalize();
+            if (root != null) {
+                path = root.relativize(path);
+            }
+            String name = path.toString().replaceAll("\\.java$", "")
+                    .replaceAll("[/\\\\:]", "_");
+            String unique = name;
+            for (int i = 2; !taken.add(unique); i++) {
+                unique = name + "_" + i;
+            }
+            names.add(unique);
+        }
+        return names;
+    }
+
+    private Path outputFileFor(String name, String extension) throws IOException {
+        Files.createDirectories(outputDir);
+        return outputDir.resolve(name + extension);
+    }
+}
@@ -0,0 +1,355 @@
+package main;
+
+import analysis.TypeError;
+import frontend.SyntaxError;
+import java_cup.runtime.ComplexSymbolFactory;
+import java_cup.runtime.ComplexSymbolFactory.ComplexSymbol;
+import java_cup.runtime.Symbol;
+import notquitejava.syntax.Lexer;
+import notquitejava.syntax.NotQuiteJavaParserSym;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed on-disk cache for compilation results.
+ *
+ * The key is a hash over the token stream of the source, the compiler version and
+ * the compiler configuration. Tokens are hashed together with their source position,
+ * because positions end up in the diagnostics and in the runtime error messages
+ * of the llvm code. So whitespace and comment changes that do not move any token
+ * (trailing whitespace, line endings, edited comment text) still hit the cache.
+ *
+ * Entries are evicted in least recently used order when the total size
+ * of the cache directory exceeds the configured limit.
+ */
+public class CompilationCache {
+    private static final String LLVM_SUFFIX = ".ll";
+    private static final String DIAG_SUFFIX = ".diag";
+
+    private final Path directory;
+    private final long maxBytes;
+
+    /** Entries in access order, maps key to the size of its files. */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Opens the cache in the given directory, existing entries are reused.
+     */
+    public CompilationCache(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        loadIndex();
+    }
+
+    /**
+     * A cached compilation result: either llvm code or the diagnostics.
+     */
+    public static class Entry {
+        private final String llvmCode;
+        private final List<SyntaxError> syntaxErrors;
+        private final List<TypeError> typeErrors;
+
+        Entry(String llvmCode, List<SyntaxError> syntaxErrors, List<TypeError> typeErrors) {
+            this.llvmCode = llvmCode;
+            this.syntaxErrors = syntaxErrors;
+            this.typeErrors = typeErrors;
+        }
+
+        /** The llvm code, or null if the compilation had errors. */
+        public String getLlvmCode() {
+            return llvmCode;
+        }
+
+        public List<SyntaxError> getSyntaxErrors() {
+            return syntaxErrors;
+        }
+
+        public List<TypeError> getTypeErrors() {
+            return typeErrors;
+        }
+    }
+
+    /**
+     * Computes the cache key of a source.
+     *
+     * @param source        the NQJ source code
+     * @param configuration compiler options influencing the output
+     */
+    public static String key(String source, String configuration) {
+        return key(source, NotQuiteJavaCompiler.VERSION, configuration);
+    }
+
+    static String key(String source, String version, String configuration) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update((version + "\0" + configuration + "\0")
+                .getBytes(StandardCharsets.UTF_8));
+
+        Lexer lexer = new Lexer(new ComplexSymbolFactory(), new StringReader(source));
+        try {
+            while (true) {
+                Symbol s = lexer.next_token();
+                if (s.sym == NotQuiteJavaParserSym.EOF) {
+                    break;
+                }
+                StringBuilder token = new StringBuilder();
+                token.append(s.sym);
+                if (s instanceof ComplexSymbol) {
+                    ComplexSymbol cs = (ComplexSymbol) s;
+                    token.append('@').append(cs.getLeft().getLine())
+                            .append(':').append(cs.getLeft().getColumn());
+                }
+                if (s.value != null) {
+                    token.append('=').append(s.value);
+                }
+                token.append('\0');
+                digest.update(token.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Looks up a key, returns null on a miss.
+     */
+    public Entry lookup(String key) {
+        synchronized (this) {
+            if (!entries.containsKey(key)) {
+                misses.incrementAndGet();
+                return null;
+            }
+            // marks the entry as recently used
+            entries.get(key);
+        }
+        try {
+            Path llvmFile = directory.resolve(key + LLVM_SUFFIX);
+            Path diagFile = directory.resolve(key + DIAG_SUFFIX);
+            FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+            Entry result;
+            if (Files.exists(llvmFile)) {
+                Files.setLastModifiedTime(llvmFile, now);
+                result = new Entry(Files.readString(llvmFile),
+                        Collections.emptyList(), Collections.emptyList());
+            } else {
+                Files.setLastModifiedTime(diagFile, now);
+                result = readDiagnostics(Files.readAllLines(diagFile));
+            }
+            hits.incrementAndGet();
+            return result;
+        } catch (IOException e) {
+            // entry was removed concurrently or is corrupt
+            synchronized (this) {
+                Long size = entries.remove(key);
+                if (size != null) {
+                    totalBytes -= size;
+                }
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Stores the llvm code of a successful compilation.
+     */
+    public void storeLlvmCode(String key, String llvmCode) throws IOException {
+        store(key, LLVM_SUFFIX, llvmCode);
+    }
+
+    /**
+     * Stores the llvm code of a successful compilation, which the module writes
+     * directly into the cache file.
+     */
+    public void storeLlvmCode(String key, LlvmToolchain.ModuleWriter module) throws IOException {
+        store(key, LLVM_SUFFIX, module);
+    }
+
+    /**
+     * Stores the diagnostics of a failed compilation.
+     */
+    public void storeDiagnostics(String key, List<SyntaxError> syntaxErrors,
+                                 List<TypeError> typeErrors) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (SyntaxError e : syntaxErrors) {
+            appendDiagnostic(sb, "S", e.getLine(), e.getColumn(), e.getMessage());
+        }
+        for (TypeError e : typeErrors) {
+            appendDiagnostic(sb, "T", e.getLine(), e.getColumn(), e.getMessage());
+        }
+        store(key, DIAG_SUFFIX, sb.toString());
+    }
+
+    private void appendDiagnostic(StringBuilder sb, String kind, int line, int column,
+                                  String message) {
+        sb.append(kind).append('\t').append(line).append('\t').append(column).append('\t')
+                .append(message.replace("\\", "\\\\").replace("\n", "\\n")
+                        .replace("\r", "\\r"))
+                .append('\n');
+    }
+
+    /**
+     * Reverses the escaping of {@link #appendDiagnostic}, in one scan so that an
+     * escaped backslash followed by n stays a backslash and an n.
+     */
+    private static String unescape(String escaped) {
+        StringBuilder sb = new StringBuilder(escaped.length());
+        for (int i = 0; i < escaped.length(); i++) {
+            char c = escaped.charAt(i);
+            if (c != '\\' || i + 1 == escaped.length()) {
+                sb.append(c);
+                continue;
+            }
+            char next = escaped.charAt(++i);
+            if (next == 'n') {
+                sb.append('\n');
+            } else if (next == 'r') {
+                sb.append('\r');
+            } else {
+                sb.append(next);
+            }
+        }
+        return sb.toString();
+    }
+
+    private Entry readDiagnostics(List<String> lines) {
+        List<SyntaxError> syntaxErrors = new ArrayList<>();
+        List<TypeError> typeErrors = new ArrayList<>();
+        for (String line : lines) {
+            String[] parts = line.split("\t", 4);
+            if (parts.length < 4) {
+                continue;
+            }
+            int l = Integer.parseInt(parts[1]);
+            int c = Integer.parseInt(parts[2]);
+            String message = unescape(parts[3]);
+            if (parts[0].equals("S")) {
+                syntaxErrors.add(new SyntaxError(message, l, c));
+            } else {
+                typeErrors.add(new TypeError(message, l, c));
+            }
+        }
+        return new Entry(null, syntaxErrors, typeErrors);
+    }
+
+    private void store(String key, String suffix, String content) throws IOException {
+        store(key, suffix, out -> out.write(content));
+    }
+
+    private void store(String key, String suffix, LlvmToolchain.ModuleWriter content)
+            throws IOException {
+        // write to a temporary file first, so that readers never see partial entries
+        Path tmp = Files.createTempFile(directory, key, ".tmp");
+        long size;
+        try {
+            try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                content.writeTo(out);
+            }
+            size = Files.size(tmp);
+            Files.move(tmp, directory.resolve(key + suffix),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+
+        synchronized (this) {
+            Long old = entries.put(key, size);
+            if (old != null) {
+                totalBytes -= old;
+            }
+            totalBytes += size;
+            evictIfNecessary();
+        }
+    }
+
+    /** Removes least recently used entries until the size limit holds. */
+    private void evictIfNecessary() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            totalBytes -= eldest.getValue();
+            evictions.incrementAndGet();
+            try {
+                Files.deleteIfExists(directory.resolve(eldest.getKey() + LLVM_SUFFIX));
+                Files.deleteIfExists(directory.resolve(eldest.getKey() + DIAG_SUFFIX));
+            } catch (IOException e) {
+                System.err.println("Cannot evict cache entry " + eldest.getKey() + ": " + e);
+            }
+        }
+    }
+
+    /** Rebuilds the index from the cache directory, oldest entries first. */
+    private void loadIndex() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> list = Files.list(directory)) {
+            list.filter(p -> p.toString().endsWith(LLVM_SUFFIX)
+                    || p.toString().endsWith(DIAG_SUFFIX))
+                    .forEach(files::add);
+        }
+        Map<Path, FileTime> modified = new HashMap<>();
+        for (Path p : files) {
+            modified.put(p, Files.getLastModifiedTime(p));
+        }
+        files.sort(Comparator.comparing(modified::get));
+        for (Path p : files) {
+            String name = p.getFileName().toString();
+            String key = name.substring(0, name.lastIndexOf('.'));
+            long size = Files.size(p);
+            entries.put(key, size);
+            totalBytes += size;
+        }
+        evictIfNecessary();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "Cache " + directory + ": " + getHits() + " hits, " + getMisses() + " misses, "
+                + getEvictions() + " evictions, " + getTotalBytes() + " bytes";
+    }
+}
@@ -0,0 +1,192 @@
+package main;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Timing and allocation measurements of the compiler phases of one compilation unit.
+ *
+ * Wall time, cpu time and allocated bytes are taken from the {@link ThreadMXBean}
+ * of the compiling thread, so measurements of parallel units do not interfere.
+ */
+public class CompilationReport {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final String unit;
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+    private final Map<String, Long> counters = new LinkedHashMap<>();
+
+    public CompilationReport(String unit) {
+        this.unit = unit;
+    }
+
+    /**
+     * Measurements of a single phase.
+     */
+    public static class Phase {
+        private long wallNanos;
+        private long cpuNanos;
+        private long allocatedBytes;
+
+        public long getWallNanos() {
+            return wallNanos;
+        }
+
+        public long getCpuNanos() {
+            return cpuNanos;
+        }
+
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        void add(Phase other) {
+            wallNanos += other.wallNanos;
+            cpuNanos += other.cpuNanos;
+            allocatedBytes += other.allocatedBytes;
+        }
+    }
+
+    /**
+     * A compiler phase, which may throw.
+     */
+    public interface PhaseAction<T> {
+        T run() throws Exception;
+    }
+
+    /**
+     * Runs the action and adds its measurements to the given phase.
+     */
+    public <T> T measure(String phaseName, PhaseAction<T> action) throws Exception {
+        long wall = System.nanoTime();
+        long cpu = cpuTime();
+        long allocated = allocatedBytes();
+        try {
+            return action.run();
+        } finally {
+            Phase phase = phases.computeIfAbsent(phaseName, n -> new Phase());
+            phase.wallNanos += System.nanoTime() - wall;
+            phase.cpuNanos += cpuTime() - cpu;
+            phase.allocatedBytes += allocatedBytes() - allocated;
+        }
+    }
+
+    private static long cpuTime() {
+        if (THREADS.isCurrentThreadCpuTimeSupported()) {
+            return THREADS.getCurrentThreadCpuTime();
+        }
+        return 0;
+    }
+
+    private static long allocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean t = (com.sun.management.ThreadMXBean) THREADS;
+            if (t.isThreadAllocatedMemorySupported() && t.isThreadAllocatedMemoryEnabled()) {
+                return t.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Sets a size counter, like the number of AST nodes or instructions.
+     */
+    public void setCounter(String name, long value) {
+        counters.put(name, value);
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+
+    public Map<String, Phase> getPhases() {
+        return phases;
+    }
+
+    public Map<String, Long> getCounters() {
+        return counters;
+    }
+
+    /**
+     * This report as a JSON object.
+     */
+    public String toJson() {
+        return toJson("\"unit\": " + quote(unit), phases, counters);
+    }
+
+    /**
+     * Sums up the reports of a batch as a JSON object.
+     */
+    public static String aggregateJson(List<CompilationReport> reports) {
+        Map<String, Phase> phases = new LinkedHashMap<>();
+        Map<String, Long> counters = new LinkedHashMap<>();
+        for (CompilationReport r : reports) {
+            r.phases.forEach((name, p) -> phases.computeIfAbsent(name, n -> new Phase()).add(p));
+            r.counters.forEach((name, c) -> counters.merge(name, c, Long::sum));
+        }
+        return toJson("\"units\": " + reports.size(), phases, counters);
+    }
+
+    private static String toJson(String header, Map<String, Phase> phases,
+                                 Map<String, Long> counters) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n  ").append(header).append(",\n");
+        sb.append("  \"phases\": {");
+        List<String> entries = new ArrayList<>();
+        phases.forEach((name, p) -> entries.add("\n    " + quote(name) + ": {"
+                + "\"wallNanos\": " + p.wallNanos
+                + ", \"cpuNanos\": " + p.cpuNanos
+                + ", \"allocatedBytes\": " + p.allocatedBytes + "}"));
+        sb.append(String.join(",", entries));
+        sb.append("\n  },\n");
+        sb.append("  \"counters\": {");
+        entries.clear();
+        counters.forEach((name, c) -> entries.add("\n    " + quote(name) + ": " + c));
+        sb.append(String.join(",", entries));
+        sb.append("\n  }\n}\n");
+        return sb.toString();
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\b':
+                    sb.append("\\b");
+                    break;
+                case '\f':
+                    sb.append("\\f");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        // other control characters are not allowed in JSON strings
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
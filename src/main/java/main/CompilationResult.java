@@ -0,0 +1,101 @@
+package main;
+
+import analysis.TypeError;
+import frontend.SyntaxError;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Diagnostics record of a single compilation unit.
+ */
+public class CompilationResult {
+    private final Path input;
+    private final Path output;
+    private final List<SyntaxError> syntaxErrors;
+    private final List<TypeError> typeErrors;
+    private final Throwable internalError;
+    private final long elapsedNanos;
+    private CompilationReport report;
+
+    /**
+     * Creates a record for the given input.
+     *
+     * @param input        the compiled source file
+     * @param output       the written llvm file, or null if nothing was written
+     * @param syntaxErrors syntax errors found in the input
+     * @param typeErrors   type errors found in the input
+     * @param internalError exception thrown by the compiler itself, or null
+     * @param elapsedNanos wall time spent on this unit
+     */
+    public CompilationResult(Path input, Path output,
+                             List<SyntaxError> syntaxErrors, List<TypeError> typeErrors,
+                             Throwable internalError, long elapsedNanos) {
+        this.input = input;
+        this.output = output;
+        this.syntaxErrors = new ArrayList<>(syntaxErrors);
+        this.typeErrors = new ArrayList<>(typeErrors);
+        this.internalError = internalError;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public Path getInput() {
+        return input;
+    }
+
+    public Path getOutput() {
+        return output;
+    }
+
+    public List<SyntaxError> getSyntaxErrors() {
+        return Collections.unmodifiableList(syntaxErrors);
+    }
+
+    public List<TypeError> getTypeErrors() {
+        return Collections.unmodifiableList(typeErrors);
+    }
+
+    public Throwable getInternalError() {
+        return internalError;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public CompilationReport getReport() {
+        return report;
+    }
+
+    public void setReport(CompilationReport report) {
+        this.report = report;
+    }
+
+    /**
+     * True, if the unit was translated without any errors.
+     */
+    public boolean isSuccess() {
+        return syntaxErrors.isEmpty() && typeErrors.isEmpty() && internalError == null;
+    }
+
+    /**
+     * All diagnostics of this unit, one message per entry.
+     */
+    public List<String> getDiagnostics() {
+        List<String> result = new ArrayList<>();
+        syntaxErrors.forEach(e -> result.add(e.toString()));
+        typeErrors.forEach(e -> result.add(e.toString()));
+        if (internalError != null) {
+            result.add("Internal compiler error: " + internalError);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        String status = isSuccess() ? "ok" : "failed (" + getDiagnostics().size() + " errors)";
+        return input + ": " + status + " in " + (elapsedNanos / 1_000_000) + " ms";
+    }
+}
@@ -0,0 +1,230 @@
+package main;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-lived compile server, so that class loading and JIT warmup
+ * of the compiler is only paid once.
+ *
+ * The protocol is line based, every request is answered with one header line
+ * followed by a body of the announced length in bytes (UTF-8):
+ * <pre>
+ *   COMPILE name length\n&lt;source&gt;  -&gt;  OK micros length\n&lt;llvm code&gt;
+ *                                      or  ERROR micros length\n&lt;diagnostics&gt;
+ *   FILE path                       -&gt;  same as COMPILE, source is read from path
+ *   STATS                           -&gt;  STATS 0 length\n&lt;counters&gt;
+ *   QUIT                            -&gt;  closes the connection
+ * </pre>
+ * where micros is the server side latency of the request.
+ */
+public class CompileServer {
+    /** Longest accepted source of a COMPILE request, in bytes. */
+    private static final int MAX_SOURCE_LENGTH = 64 << 20;
+
+    private static final String WARMUP_PROGRAM = "int main() {\n"
+            + "    A a;\n"
+            + "    int[] xs;\n"
+            + "    a = new A();\n"
+            + "    xs = new int[3];\n"
+            + "    xs[0] = a.get(4) / 2;\n"
+            + "    while (xs[0] < 10 && true) { xs[0] = xs[0] + 1; }\n"
+            + "    printInt(xs.length);\n"
+            + "    return 0;\n"
+            + "}\n"
+            + "class A { int x; int get(int y) { x = y; return this.x; } }\n";
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failedRequests = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+
+    /**
+     * Entry point for the server mode.
+     *
+     * Usage: {@code --server [port]}, without a port requests are read from stdin
+     * and answered on stdout.
+     */
+    public static void run(String[] args) throws IOException {
+        CompileServer server = new CompileServer();
+        server.warmUp();
+        if (args.length > 0) {
+            server.serveSocket(Integer.parseInt(args[0]));
+        } else {
+            server.serve(System.in, System.out);
+        }
+    }
+
+    /**
+     * Compiles a small program a few times, so that the first real request
+     * does not pay for class loading.
+     */
+    void warmUp() {
+        for (int i = 0; i < 20; i++) {
+            try {
+                NotQuiteJavaCompiler compiler = new NotQuiteJavaCompiler();
+                compiler.compileString("warmup.java", WARMUP_PROGRAM);
+                compiler.getLlvmProg().toString();
+            } catch (Exception e) {
+                System.err.println("Warmup failed: " + e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Accepts connections on the loopback interface, one thread per connection.
+     */
+    void serveSocket(int port) throws IOException {
+        ExecutorService connections = Executors.newCachedThreadPool();
+        try (ServerSocket serverSocket =
+                     new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            System.err.println("Compile server listening on "
+                    + serverSocket.getLocalSocketAddress());
+            while (true) {
+                Socket socket = serverSocket.accept();
+                connections.execute(() -> {
+                    try (socket) {
+                        serve(socket.getInputStream(), socket.getOutputStream());
+                    } catch (IOException e) {
+                        System.err.println("Connection failed: " + e);
+                    }
+                });
+            }
+        } finally {
+            connections.shutdown();
+        }
+    }
+
+    /**
+     * Handles requests from the given stream until QUIT or end of input.
+     */
+    void serve(InputStream rawIn, OutputStream rawOut) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(rawIn);
+        BufferedOutputStream out = new BufferedOutputStream(rawOut);
+        String line;
+        while ((line = readLine(in)) != null) {
+            String[] parts = line.trim().split("\\s+");
+            switch (parts[0]) {
+                case "":
+                    continue;
+                case "QUIT":
+                    out.flush();
+                    return;
+                case "STATS":
+                    respond(out, "STATS", 0, statistics());
+                    break;
+                case "COMPILE":
+                    if (parts.length != 3) {
+                        respond(out, "ERROR", 0, "Usage: COMPILE name length\n");
+                        break;
+                    }
+                    int length;
+                    try {
+                        length = Integer.parseInt(parts[2]);
+                    } catch (NumberFormatException e) {
+                        respond(out, "ERROR", 0, "Invalid length " + parts[2] + "\n");
+                        break;
+                    }
+                    if (length < 0 || length > MAX_SOURCE_LENGTH) {
+                        respond(out, "ERROR", 0, "Length must be between 0 and "
+                                + MAX_SOURCE_LENGTH + "\n");
+                        break;
+                    }
+                    byte[] source = in.readNBytes(length);
+                    handleCompile(out, parts[1], new String(source, StandardCharsets.UTF_8));
+                    break;
+                case "FILE":
+                    if (parts.length != 2) {
+                        respond(out, "ERROR", 0, "Usage: FILE path\n");
+                        break;
+                    }
+                    String content;
+                    try {
+                        content = new String(
+                                Files.readAllBytes(new File(parts[1]).toPath()),
+                                StandardCharsets.UTF_8);
+                    } catch (IOException e) {
+                        respond(out, "ERROR", 0, "Cannot read " + parts[1] + ": " + e + "\n");
+                        break;
+                    }
+                    handleCompile(out, parts[1], content);
+                    break;
+                default:
+                    respond(out, "ERROR", 0, "Unknown command " + parts[0] + "\n");
+            }
+            out.flush();
+        }
+        out.flush();
+    }
+
+    private void handleCompile(OutputStream out, String name, String source) throws IOException {
+        long start = System.nanoTime();
+        NotQuiteJavaCompiler compiler = new NotQuiteJavaCompiler();
+        String status;
+        String body;
+        try {
+            compiler.compileString(name, source);
+            if (compiler.getSyntaxErrors().isEmpty() && compiler.getTypeErrors().isEmpty()) {
+                status = "OK";
+                body = compiler.getLlvmProg().toString();
+            } else {
+                status = "ERROR";
+                StringBuilder sb = new StringBuilder();
+                compiler.getSyntaxErrors().forEach(e -> sb.append(e).append("\n"));
+                compiler.getTypeErrors().forEach(e -> sb.append(e).append("\n"));
+                body = sb.toString();
+            }
+        } catch (Exception | StackOverflowError e) {
+            status = "ERROR";
+            body = "Internal compiler error: " + e + "\n";
+        }
+        long micros = (System.nanoTime() - start) / 1000;
+
+        requests.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        if (!status.equals("OK")) {
+            failedRequests.incrementAndGet();
+        }
+        respond(out, status, micros, body);
+    }
+
+    private String statistics() {
+        long count = requests.get();
+        return "requests " + count + "\n"
+                + "failed " + failedRequests.get() + "\n"
+                + "averageMicros " + (count == 0 ? 0 : totalMicros.get() / count) + "\n";
+    }
+
+    private void respond(OutputStream out, String status, long micros, String body)
+            throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        out.write((status + " " + micros + " " + bytes.length + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a header line without buffering beyond its end,
+     * so that a following body can be read from the same stream.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                return line.toString(StandardCharsets.UTF_8);
+            }
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        return line.size() == 0 ? null : line.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,224 @@
+package main;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Driver for the external llvm tools.
+ *
+ * The printed module is streamed into the stdin of the first tool and the tools
+ * of one invocation are connected by pipes, so no intermediate .ll or .bc files
+ * are written. Stdout and stderr of every process are drained on their own threads,
+ * so tools with large outputs cannot block.
+ */
+public class LlvmToolchain {
+    private final String lli;
+    private final String llc;
+    private final String opt;
+    private final String cc;
+
+    /**
+     * Uses the tools from LLVM_COMPILER_PATH (or the path) and the C compiler from CC
+     * (or clang) for linking.
+     */
+    public LlvmToolchain() {
+        Map<String, String> env = System.getenv();
+        String base = env.get("LLVM_COMPILER_PATH");
+        lli = tool(base, "lli");
+        llc = tool(base, "llc");
+        opt = tool(base, "opt");
+        cc = env.getOrDefault("CC", "clang");
+    }
+
+    static String tool(String base, String name) {
+        return base == null ? name : Paths.get(base, name).toString();
+    }
+
+    /**
+     * Writes an llvm module as text.
+     */
+    public interface ModuleWriter {
+        void writeTo(Writer out) throws IOException;
+
+        /**
+         * Copies a module which was already written to the given file.
+         */
+        static ModuleWriter fromFile(Path file) {
+            return out -> {
+                try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    in.transferTo(out);
+                }
+            };
+        }
+    }
+
+    /**
+     * Output of a finished tool invocation.
+     */
+    public static class ToolOutput {
+        private final int exitCode;
+        private final byte[] out;
+        private final String err;
+
+        ToolOutput(int exitCode, byte[] out, String err) {
+            this.exitCode = exitCode;
+            this.out = out;
+            this.err = err;
+        }
+
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        public String getOut() {
+            return new String(out, StandardCharsets.UTF_8);
+        }
+
+        public String getErr() {
+            return err;
+        }
+    }
+
+    /**
+     * Runs the module in the interpreter and returns its output.
+     */
+    public ToolOutput interpret(ModuleWriter module) throws IOException, InterruptedException {
+        return runPipeline(List.of(List.of(lli, "-")), module, false);
+    }
+
+    /**
+     * Compiles the module to an executable.
+     *
+     * Above -O0 the module is first piped through opt with the matching pass pipeline.
+     */
+    public void compileExecutable(ModuleWriter module, Path executable, OptLevel level)
+            throws IOException, InterruptedException {
+        Path objFile = Files.createTempFile(executable.getFileName().toString(), ".o");
+        try {
+            List<List<String>> commands = new ArrayList<>();
+            if (!level.optArguments().isEmpty()) {
+                List<String> optCommand = new ArrayList<>();
+                optCommand.add(opt);
+                optCommand.addAll(level.optArguments());
+                optCommand.addAll(List.of("-o", "-", "-"));
+                commands.add(optCommand);
+            }
+            // llvm -> object file, llc reads the (textual or bitcode) module from stdin
+            List<String> llcCommand = new ArrayList<>();
+            llcCommand.add(llc);
+            llcCommand.addAll(level.llcArguments());
+            llcCommand.addAll(List.of("-filetype=obj", "-o", objFile.toString(), "-"));
+            commands.add(llcCommand);
+            runPipeline(commands, module, true);
+
+            // link object file
+            runPipeline(List.of(List.of(cc, "-o", executable.toString(), objFile.toString())),
+                    null, true);
+        } finally {
+            Files.deleteIfExists(objFile);
+        }
+    }
+
+    /**
+     * Starts the given commands connected by pipes, feeds the module into the first one
+     * and waits for all of them.
+     *
+     * @param commands       the commands of the pipeline, stdout of each is stdin of the next
+     * @param module         the stdin of the first command, or null for no input
+     * @param failOnExitCode if true, a non-zero exit code of any command is an error
+     */
+    ToolOutput runPipeline(List<List<String>> commands, ModuleWriter module,
+                           boolean failOnExitCode) throws IOException, InterruptedException {
+        List<ProcessBuilder> builders = new ArrayList<>();
+        for (List<String> command : commands) {
+            builders.add(new ProcessBuilder(command));
+        }
+        List<Process> processes = ProcessBuilder.startPipeline(builders);
+        Process first = processes.get(0);
+        Process last = processes.get(processes.size() - 1);
+
+        List<Drain> errDrains = new ArrayList<>();
+        for (Process p : processes) {
+            errDrains.add(Drain.start(p.getErrorStream()));
+        }
+        Drain outDrain = Drain.start(last.getInputStream());
+
+        IOException[] feedError = new IOException[1];
+        Thread feeder = new Thread(() -> {
+            try (Writer in = new BufferedWriter(
+                    new OutputStreamWriter(first.getOutputStream(), StandardCharsets.UTF_8))) {
+                if (module != null) {
+                    module.writeTo(in);
+                }
+            } catch (IOException e) {
+                // the tool may have stopped reading because of an error, reported below
+                feedError[0] = e;
+            }
+        }, "llvm-stdin");
+        feeder.start();
+
+        int exitCode = 0;
+        StringBuilder errors = new StringBuilder();
+        for (int i = 0; i < processes.size(); i++) {
+            int code = processes.get(i).waitFor();
+            errors.append(new String(errDrains.get(i).await(), StandardCharsets.UTF_8));
+            if (code != 0 && exitCode == 0) {
+                exitCode = code;
+                if (failOnExitCode) {
+                    // the later commands would only wait for input that never comes
+                    processes.forEach(Process::destroyForcibly);
+                    feeder.join();
+                    outDrain.await();
+                    throw new RuntimeException("Command " + commands.get(i)
+                            + " failed with error code " + code + "\n" + errors);
+                }
+            }
+        }
+        feeder.join();
+        byte[] out = outDrain.await();
+        if (feedError[0] != null && exitCode == 0) {
+            throw feedError[0];
+        }
+        return new ToolOutput(exitCode, out, errors.toString());
+    }
+
+    /**
+     * Reads a stream to its end on a separate thread.
+     */
+    private static class Drain extends Thread {
+        private final InputStream in;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        private Drain(InputStream in) {
+            super("llvm-drain");
+            this.in = in;
+            setDaemon(true);
+        }
+
+        static Drain start(InputStream in) {
+            Drain d = new Drain(in);
+            d.start();
+            return d;
+        }
+
+        @Override
+        public void run() {
+            try (in) {
+                in.transferTo(buffer);
+            } catch (IOException e) {
+                // process was destroyed, keep what was read so far
+            }
+        }
+
+        byte[] await() throws InterruptedException {
+            join();
+            return buffer.toByteArray();
+        }
+    }
+}
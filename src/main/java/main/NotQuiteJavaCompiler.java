@@ -4,12 +4,22 @@ import analysis.Analysis;
 import analysis.TypeError;
 import frontend.NQJFrontend;
 import frontend.SyntaxError;
+import minillvm.analysis.Inliner;
+import minillvm.analysis.PassManager;
+import minillvm.analysis.PassStatistics;
+import minillvm.ast.BasicBlock;
+import minillvm.ast.Proc;
 import minillvm.ast.Prog;
+import minillvm.printer.PrettyPrinter;
+import notquitejava.ast.NQJElement;
 import notquitejava.ast.NQJProgram;
 import translation.Translator;
 
 import java.io.*;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -20,15 +30,67 @@ import java.util.Scanner;
  */
 public class NotQuiteJavaCompiler {
 
+    /**
+     * Version of the generated code, part of the cache keys.
+     */
+    public static final String VERSION = "1.14";
+
     private NQJProgram javaProgram;
     private Prog llvmProg;
     private Analysis analysis;
     private NQJFrontend frontend;
+    private CompilationCache cache;
+    private CompilationCache.Entry cachedEntry;
+    private CompilationReport report = new CompilationReport("");
+    private OptLevel optLevel = OptLevel.O0;
+    private boolean directSsa = false;
+    private int inlineThreshold = Inliner.DEFAULT_THRESHOLD;
+    private boolean arenaAllocation = false;
+    private PassStatistics passStatistics = new PassStatistics();
 
     /**
      * Entry main function.
      */
     public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            // compiles many files in parallel
+            System.exit(BatchCompiler.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        if (args.length > 0 && args[0].equals("--server")) {
+            // keeps the compiler warm and answers compile requests
+            CompileServer.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        OptLevel optLevel = OptLevel.O0;
+        boolean directSsa = false;
+        int inlineThreshold = Inliner.DEFAULT_THRESHOLD;
+        boolean arenaAllocation = false;
+        boolean printStatistics = false;
+        List<String> fileArgs = new ArrayList<>();
+        for (String arg : args) {
+            if (OptLevel.parse(arg) != null) {
+                optLevel = OptLevel.parse(arg);
+            } else if (arg.equals("--ssa")) {
+                directSsa = true;
+            } else if (arg.startsWith("--inline=")) {
+                // maximum size of inlined procedures, in instructions
+                inlineThreshold = Integer.parseInt(arg.substring("--inline=".length()));
+            } else if (arg.equals("--arena")) {
+                // allocations from the bump pointer arena of the runtime
+                arenaAllocation = true;
+            } else if (arg.equals("--stats")) {
+                // what the optimization passes changed, per procedure
+                printStatistics = true;
+            } else if (arg.startsWith("--")) {
+                System.err.println("Unknown option " + arg + ", expected -O0 to -O3, --ssa,"
+                        + " --inline=n, --arena or --stats.");
+                System.exit(1);
+            } else {
+                fileArgs.add(arg);
+            }
+        }
+        args = fileArgs.toArray(new String[0]);
+
         while (true) {
             String fileName;
             if (args.length > 0) {
@@ -41,6 +103,10 @@ public class NotQuiteJavaCompiler {
                 System.exit(0);
 
             NotQuiteJavaCompiler compiler = new NotQuiteJavaCompiler();
+            compiler.setOptLevel(optLevel);
+            compiler.setDirectSsa(directSsa);
+            compiler.setInlineThreshold(inlineThreshold);
+            compiler.setArenaAllocation(arenaAllocation);
             File inputFile = new File(fileName);
             compiler.compileFile(inputFile);
 
@@ -49,6 +115,9 @@ public class NotQuiteJavaCompiler {
                 compiler.getTypeErrors().forEach(System.out::println);
                 System.exit(7);
             }
+            if (printStatistics) {
+                compiler.getPassStatistics().lines().forEach(System.out::println);
+            }
 
             // For seeing results directly:
             compiler.runInterpreter(inputFile.getName());
@@ -77,35 +146,210 @@ public class NotQuiteJavaCompiler {
 
     /**
      * Read, typecheck, and translate.
+     *
+     * If a cache is set, the result is looked up there first. On a hit, only
+     * the llvm code and the diagnostics are available, not the ASTs.
      */
     public void compile(String inputName, Reader input) throws Exception {
+        report = new CompilationReport(inputName);
+        if (cache == null) {
+            compileUncached(input);
+            return;
+        }
+
+        StringWriter source = new StringWriter();
+        input.transferTo(source);
+        String key = CompilationCache.key(source.toString(), configuration());
+        cachedEntry = report.measure("cache", () -> cache.lookup(key));
+        if (cachedEntry != null) {
+            return;
+        }
+
+        compileUncached(new StringReader(source.toString()));
+        if (getSyntaxErrors().isEmpty() && getTypeErrors().isEmpty()) {
+            cache.storeLlvmCode(key, out -> PrettyPrinter.printTo(llvmProg, out));
+        } else {
+            cache.storeDiagnostics(key, getSyntaxErrors(), getTypeErrors());
+        }
+    }
+
+    private void compileUncached(Reader input) throws Exception {
         frontend = new NQJFrontend();
-        javaProgram = frontend.parse(input);
+        javaProgram = report.measure("parse", () -> frontend.parse(input));
         if (!frontend.getSyntaxErrors().isEmpty()) {
             return;
         }
+        report.setCounter("astNodes", countElements(javaProgram));
 
         // typecheck
         analysis = new Analysis(javaProgram);
-        analysis.check();
+        report.measure("analysis", () -> {
+            analysis.check();
+            return null;
+        });
         if (!analysis.getTypeErrors().isEmpty()) {
             return;
         }
 
         // translate
         Translator translator = new Translator(javaProgram);
-        llvmProg = translator.translate();
+        if (directSsa) {
+            translator.enableSsa();
+        }
+        llvmProg = report.measure("translate", translator::translate);
+        llvmProg.setArenaAllocation(arenaAllocation);
+        report.setCounter("directMethodCalls", translator.getDirectMethodCalls());
+        report.setCounter("virtualMethodCalls", translator.getVirtualMethodCalls());
+
+        // optimize
+        PassManager passes = PassManager.forLevel(optLevel.number(), inlineThreshold);
+        report.measure("optimize", () -> {
+            passes.run(llvmProg);
+            return null;
+        });
+        passStatistics = passes.getStatistics();
+        countLlvmElements();
+    }
+
+    private static long countElements(NQJElement e) {
+        long count = 1;
+        for (int i = 0; i < e.size(); i++) {
+            if (e.get(i) != null) {
+                count += countElements(e.get(i));
+            }
+        }
+        return count;
+    }
+
+    private void countLlvmElements() {
+        long blocks = 0;
+        long instructions = 0;
+        for (Proc proc : llvmProg.getProcedures()) {
+            blocks += proc.getBasicBlocks().size();
+            for (BasicBlock block : proc.getBasicBlocks()) {
+                instructions += block.size();
+            }
+        }
+        report.setCounter("procs", llvmProg.getProcedures().size());
+        report.setCounter("basicBlocks", blocks);
+        report.setCounter("instructions", instructions);
     }
 
     public NQJProgram getJavaProgram() {
         return javaProgram;
     }
 
+    /**
+     * Returns the translated program, null if the result came from the cache.
+     */
     public Prog getLlvmProg() {
         return llvmProg;
     }
 
+    /**
+     * Returns the translated llvm code.
+     */
+    public String getLlvmCode() {
+        if (cachedEntry != null) {
+            return cachedEntry.getLlvmCode();
+        }
+        return llvmProg.toString();
+    }
+
+    /**
+     * Phase measurements of the last compilation.
+     */
+    public CompilationReport getReport() {
+        return report;
+    }
+
+    /**
+     * Uses the given cache for all following compilations.
+     */
+    public void setCache(CompilationCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * True, if the last compilation was answered by the cache.
+     */
+    public boolean isCacheHit() {
+        return cachedEntry != null;
+    }
+
+    /**
+     * Sets the optimization level for the following compilations.
+     */
+    public void setOptLevel(OptLevel optLevel) {
+        this.optLevel = optLevel;
+    }
+
+    public OptLevel getOptLevel() {
+        return optLevel;
+    }
+
+    /**
+     * If set, the translation builds SSA form directly instead of
+     * keeping locals in allocas.
+     */
+    public void setDirectSsa(boolean directSsa) {
+        this.directSsa = directSsa;
+    }
+
+    public boolean isDirectSsa() {
+        return directSsa;
+    }
+
+    /**
+     * Sets the maximum size of procedures inlined on level 3, in instructions.
+     */
+    public void setInlineThreshold(int inlineThreshold) {
+        this.inlineThreshold = inlineThreshold;
+    }
+
+    public int getInlineThreshold() {
+        return inlineThreshold;
+    }
+
+    /**
+     * If set, the generated code allocates objects and arrays from a bump pointer arena
+     * instead of calling calloc for each of them. Setting the environment variable
+     * NQJ_ARENA_STATS prints the allocation statistics at exit.
+     */
+    public void setArenaAllocation(boolean arenaAllocation) {
+        this.arenaAllocation = arenaAllocation;
+    }
+
+    public boolean isArenaAllocation() {
+        return arenaAllocation;
+    }
+
+    /**
+     * What the optimization passes of the last compilation changed.
+     */
+    public PassStatistics getPassStatistics() {
+        return passStatistics;
+    }
+
+    /**
+     * Options of this compiler, which influence the generated code.
+     */
+    String configuration() {
+        return optLevel.name() + (directSsa ? "-ssa" : "")
+                + (inlineThreshold != Inliner.DEFAULT_THRESHOLD ? "-inline" + inlineThreshold : "")
+                + (arenaAllocation ? "-arena" : "");
+    }
+
+    /**
+     * Returns all saved syntax errors.
+     */
     public List<SyntaxError> getSyntaxErrors() {
+        if (cachedEntry != null) {
+            return cachedEntry.getSyntaxErrors();
+        }
+        if (frontend == null) {
+            return Collections.emptyList();
+        }
         return frontend.getSyntaxErrors();
     }
 
@@ -113,6 +357,9 @@ public class NotQuiteJavaCompiler {
      * Returns all saved type errors.
      */
     public List<TypeError> getTypeErrors() {
+        if (cachedEntry != null) {
+            return cachedEntry.getTypeErrors();
+        }
         if (analysis == null) {
             return Collections.emptyList();
         }
@@ -120,56 +367,56 @@ public class NotQuiteJavaCompiler {
     }
 
     /**
-     * Interprets the given llvm code and gets results.
+     * Writes the translated llvm code to the given file.
      */
-    private void runInterpreter(String name) throws IOException, InterruptedException {
-        File llvmOutFile = new File(name + ".ll");
-        Files.writeString(llvmOutFile.toPath(), llvmProg.toString());
-        try {
-            executeCommand("lli", llvmOutFile.getAbsolutePath());
-        } catch (RuntimeException e) {
-            System.out.println("Cannot run the program.");
+    public void writeLlvmFile(Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file)) {
+            report.measure("print", () -> {
+                printLlvm(out);
+                return null;
+            });
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
         }
     }
 
     /**
-     * Compile to mini llvm code.
+     * Prints the translated llvm code to the given writer.
+     *
+     * This is not measured in the report, since the toolchain calls it on its own
+     * thread; {@link #writeLlvmFile} measures the printing.
      */
-    private void compileLlvmCode(String name) throws IOException, InterruptedException {
-        File llvmOutFile = new File(name + ".ll");
-        Files.writeString(llvmOutFile.toPath(), llvmProg.toString());
-
-        // llvm -> bitcode
-        executeCommand("llvm-as", llvmOutFile.getAbsolutePath());
-
-        //  bitcode -> object file
-        File llvmBc = new File(name + ".bc");
-        executeCommand("llc", "-filetype=obj", llvmBc.getAbsolutePath());
-
-        // link object file
-        File objFile = new File(name + ".o");
-        executeCommand("clang", "-o", name + ".exe", objFile.getAbsolutePath());
+    public void printLlvm(Writer out) throws IOException {
+        if (llvmProg == null) {
+            // result from the cache
+            out.write(getLlvmCode());
+            out.flush();
+            return;
+        }
+        // stream the module, instead of building the whole program text first
+        PrettyPrinter.printTo(llvmProg, out);
     }
 
-    private void executeCommand(String... args) throws IOException, InterruptedException {
-        ProcessBuilder builder = new ProcessBuilder();
-        builder.command(args);
-        Process process = builder.start();
-        int exitCode = process.waitFor();
-
-        String out = readStream(process.getInputStream());
-        System.out.println(out);
-        String err = readStream(process.getErrorStream());
-        System.err.println(err);
-
-        if (exitCode != 0) {
-            throw new RuntimeException("Command " + Arrays.toString(args)
-                    + " failed with error code " + exitCode);
+    /**
+     * Interprets the given llvm code and gets results.
+     */
+    private void runInterpreter(String name) throws IOException, InterruptedException {
+        LlvmToolchain.ToolOutput result = new LlvmToolchain().interpret(this::printLlvm);
+        System.out.print(result.getOut());
+        System.err.print(result.getErr());
+        if (result.getExitCode() != 0) {
+            System.out.println("Cannot run the program " + name
+                    + ", exit code " + result.getExitCode() + ".");
         }
     }
 
-    private String readStream(InputStream inputStream) {
-        Scanner s = new Scanner(inputStream).useDelimiter("\\A");
-        return s.hasNext() ? s.next() : "";
+    /**
+     * Compiles the llvm code to an executable.
+     */
+    public void compileLlvmCode(String name) throws IOException, InterruptedException {
+        new LlvmToolchain().compileExecutable(this::printLlvm, Paths.get(name + ".exe"),
+                optLevel);
     }
 }
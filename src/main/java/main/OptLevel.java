@@ -0,0 +1,47 @@
+package main;
+
+import java.util.List;
+
+/**
+ * Optimization levels, trading compile latency against the runtime
+ * of the generated executables.
+ */
+public enum OptLevel {
+    O0, O1, O2, O3;
+
+    /**
+     * Parses a command line flag like "-O2", returns null for other arguments.
+     */
+    public static OptLevel parse(String flag) {
+        for (OptLevel level : values()) {
+            if (flag.equals("-" + level.name())) {
+                return level;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The level as a number, 0 to 3.
+     */
+    public int number() {
+        return ordinal();
+    }
+
+    /**
+     * Arguments for llvm's opt tool, empty if opt should not run at this level.
+     */
+    public List<String> optArguments() {
+        if (this == O0) {
+            return List.of();
+        }
+        return List.of("-" + name());
+    }
+
+    /**
+     * Arguments for llc's code generation.
+     */
+    public List<String> llcArguments() {
+        return List.of("-" + name());
+    }
+}
@@ -0,0 +1,227 @@
+package minillvm.analysis;
+
+import minillvm.ast.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Derives llvm attributes of procedures, their parameters and return values,
+ * which are then printed with the procedure.
+ *
+ * <ul>
+ *     <li>{@code nounwind} on all procedures, there are no exceptions.</li>
+ *     <li>{@code nonnull} on {@code this} parameters, methods are only called on checked
+ *     receivers, and on the results of procedures which only return non-null values,
+ *     see {@link NullCheckElimination}.</li>
+ *     <li>{@code noalias} on the results of procedures which return memory they allocated
+ *     and did not pass on, like constructors and newArray.</li>
+ *     <li>{@code readnone} and {@code readonly} on procedures without loops which do not
+ *     read or write memory outside of their own allocas, and only call such procedures.
+ *     Loops are excluded, since calls which are not used could be removed although
+ *     they do not terminate.</li>
+ *     <li>{@code noreturn} on procedures which always halt with an error.</li>
+ * </ul>
+ */
+public class AttributeInference implements Pass {
+
+    @Override
+    public String getName() {
+        return "attributes";
+    }
+
+    @Override
+    public void run(Prog prog, PassStatistics statistics) {
+        Set<Proc> nonNullProcs = NullCheckElimination.nonNullProcs(prog);
+        Set<Proc> readNone = new HashSet<>();
+        Set<Proc> readOnly = new HashSet<>();
+        // grows until nothing changes, so recursive procedures are never included
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Proc proc : prog.getProcedures()) {
+                if (readOnly.contains(proc) || proc.getBasicBlocks().isEmpty()
+                        || hasLoop(proc)) {
+                    continue;
+                }
+                MemoryEffect effect = memoryEffect(proc, readNone, readOnly);
+                if (effect == MemoryEffect.NONE) {
+                    readNone.add(proc);
+                }
+                if (effect != MemoryEffect.WRITE) {
+                    readOnly.add(proc);
+                    changed = true;
+                }
+            }
+        }
+
+        for (Proc proc : prog.getProcedures()) {
+            if (proc.getBasicBlocks().isEmpty()) {
+                continue;
+            }
+            List<String> attributes = new ArrayList<>();
+            attributes.add("nounwind");
+            if (readNone.contains(proc)) {
+                attributes.add("readnone");
+            } else if (readOnly.contains(proc)) {
+                attributes.add("readonly");
+            }
+            if (!returns(proc)) {
+                attributes.add("noreturn");
+            }
+            List<String> returnAttributes = new ArrayList<>();
+            if (nonNullProcs.contains(proc)) {
+                returnAttributes.add("nonnull");
+            }
+            if (proc.getReturnType() instanceof TypePointer && returnsFreshMemory(proc)) {
+                returnAttributes.add("noalias");
+            }
+            for (Parameter param : proc.getParameters()) {
+                if (param.getName().equals("this") && param.getType() instanceof TypePointer) {
+                    param.setAttributes("nonnull");
+                    statistics.add(getName(), proc.getName(), "nonnull", 1);
+                }
+            }
+            proc.setAttributes(String.join(" ", attributes));
+            proc.setReturnAttributes(
+                    returnAttributes.isEmpty() ? null : String.join(" ", returnAttributes));
+            for (String attribute : attributes) {
+                statistics.add(getName(), proc.getName(), attribute, 1);
+            }
+            for (String attribute : returnAttributes) {
+                statistics.add(getName(), proc.getName(), attribute, 1);
+            }
+        }
+    }
+
+    private enum MemoryEffect {
+        NONE, READ, WRITE
+    }
+
+    /**
+     * What the procedure does with memory outside of its allocas, assuming that
+     * the procedures in the sets do not access or only read memory.
+     */
+    private static MemoryEffect memoryEffect(Proc proc, Set<Proc> readNone,
+                                             Set<Proc> readOnly) {
+        Set<Variable> allocas = new HashSet<>();
+        for (BasicBlock block : proc.getBasicBlocks()) {
+            for (Instruction instr : block) {
+                if (instr instanceof Alloca) {
+                    allocas.add(((Alloca) instr).getVar());
+                }
+            }
+        }
+        MemoryEffect effect = MemoryEffect.NONE;
+        for (BasicBlock block : proc.getBasicBlocks()) {
+            for (Instruction instr : block) {
+                if (instr instanceof Load) {
+                    if (!isLocal(((Load) instr).getAddress(), allocas)) {
+                        effect = MemoryEffect.READ;
+                    }
+                } else if (instr instanceof Store) {
+                    if (!isLocal(((Store) instr).getAddress(), allocas)) {
+                        return MemoryEffect.WRITE;
+                    }
+                } else if (instr instanceof Call) {
+                    Call call = (Call) instr;
+                    Proc callee = call.getFunction() instanceof ProcedureRef
+                            ? ((ProcedureRef) call.getFunction()).getProcedure() : null;
+                    if (readNone.contains(callee)) {
+                        continue;
+                    } else if (readOnly.contains(callee)) {
+                        effect = MemoryEffect.READ;
+                    } else {
+                        return MemoryEffect.WRITE;
+                    }
+                } else if (instr instanceof Alloc || instr instanceof Print
+                        || instr instanceof HaltWithError) {
+                    // calloc, output and exit are side effects
+                    return MemoryEffect.WRITE;
+                }
+            }
+        }
+        return effect;
+    }
+
+    private static boolean isLocal(Operand address, Set<Variable> allocas) {
+        return address instanceof VarRef && allocas.contains(((VarRef) address).getVariable());
+    }
+
+    /**
+     * Checks for an edge to a dominator, the translation only creates natural loops.
+     */
+    private static boolean hasLoop(Proc proc) {
+        ControlFlowGraph cfg = new ControlFlowGraph(proc);
+        for (BasicBlock block : cfg.getReachableBlocks()) {
+            for (BasicBlock succ : cfg.getSuccessors(block)) {
+                if (cfg.dominates(succ, block)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean returns(Proc proc) {
+        ControlFlowGraph cfg = new ControlFlowGraph(proc);
+        for (BasicBlock block : cfg.getReachableBlocks()) {
+            TerminatingInstruction terminator = block.getTerminatingInstruction().orElse(null);
+            if (terminator instanceof ReturnExpr || terminator instanceof ReturnVoid) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether all returned values are bitcasts of allocations, which are
+     * otherwise only used as addresses.
+     */
+    private static boolean returnsFreshMemory(Proc proc) {
+        Set<Variable> fresh = new HashSet<>();
+        for (BasicBlock block : proc.getBasicBlocks()) {
+            for (Instruction instr : block) {
+                if (instr instanceof Alloc) {
+                    fresh.add(((Alloc) instr).getVar());
+                } else if (instr instanceof Bitcast && isIn(((Bitcast) instr).getExpr(), fresh)) {
+                    fresh.add(((Bitcast) instr).getVar());
+                }
+            }
+        }
+        boolean returnsAny = false;
+        for (BasicBlock block : proc.getBasicBlocks()) {
+            for (Instruction instr : block) {
+                if (instr instanceof ReturnExpr) {
+                    if (!isIn(((ReturnExpr) instr).getReturnValue(), fresh)) {
+                        return false;
+                    }
+                    returnsAny = true;
+                } else if (instr instanceof Store) {
+                    if (isIn(((Store) instr).getValue(), fresh)) {
+                        return false;
+                    }
+                } else if (instr instanceof Call) {
+                    for (Operand arg : ((Call) instr).getArguments()) {
+                        if (isIn(arg, fresh)) {
+                            return false;
+                        }
+                    }
+                } else if (instr instanceof PhiNode) {
+                    for (PhiNodeChoice choice : ((PhiNode) instr).getChoices()) {
+                        if (isIn(choice.getValue(), fresh)) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        return returnsAny;
+    }
+
+    private static boolean isIn(Operand operand, Set<Variable> vars) {
+        return operand instanceof VarRef && vars.contains(((VarRef) operand).getVariable());
+    }
+}
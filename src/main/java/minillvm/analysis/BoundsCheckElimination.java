@@ -0,0 +1,301 @@
+package minillvm.analysis;
+
+import minillvm.ast.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static minillvm.ast.Ast.*;
+
+/**
+ * Removes array bounds checks which are implied by a loop guard.
+ *
+ * <p>The translation checks an index with
+ * {@code (index < 0) | (length - 1 < index)}. The upper half is redundant in blocks
+ * which are only entered on the true edge of {@code index < length}, where length
+ * is the length of the same array. The lower half is redundant for non-negative
+ * indexes: constants, array lengths and induction variables which start non-negative
+ * and are incremented by one under a guard {@code i < n}, so they cannot overflow.
+ *
+ * <p>Checks where both halves are redundant are removed. Checks where one half is
+ * redundant are narrowed to the other half. The checks are not hoisted out of loops,
+ * because the error would then be reported before the output of earlier iterations.
+ * Expects SSA form, see {@link PromoteAllocas}.
+ */
+public class BoundsCheckElimination implements Pass {
+
+    @Override
+    public String getName() {
+        return "boundscheck-elim";
+    }
+
+    @Override
+    public void run(Prog prog, PassStatistics statistics) {
+        for (Proc proc : prog.getProcedures()) {
+            if (proc.getBasicBlocks().isEmpty()) {
+                continue;
+            }
+            Ranges ranges = new Ranges(proc);
+            ranges.run();
+            statistics.add(getName(), proc.getName(), "eliminated", ranges.eliminated);
+            statistics.add(getName(), proc.getName(), "narrowed", ranges.narrowed);
+        }
+    }
+
+    /**
+     * A bounds check found in the program.
+     */
+    private static class BoundsCheck {
+        Branch branch;
+        Operand index;
+        /** The array whose length is compared. */
+        Variable array;
+        /** The conditions of the two halves. */
+        Variable belowZero;
+        Variable aboveLength;
+    }
+
+    /**
+     * The analysis of one procedure.
+     */
+    private static class Ranges {
+        private final Proc proc;
+        private final ControlFlowGraph cfg;
+        private final Map<Variable, Instruction> definitions = new HashMap<>();
+        private final Map<Variable, Boolean> nonNegative = new HashMap<>();
+        int eliminated;
+        int narrowed;
+
+        Ranges(Proc proc) {
+            this.proc = proc;
+            this.cfg = new ControlFlowGraph(proc);
+            for (BasicBlock block : proc.getBasicBlocks()) {
+                for (Instruction instr : block) {
+                    if (instr instanceof Assign) {
+                        definitions.put(((Assign) instr).getVar(), instr);
+                    }
+                }
+            }
+        }
+
+        void run() {
+            for (BasicBlock block : cfg.getReachableBlocks()) {
+                TerminatingInstruction terminator = block.getTerminatingInstruction().orElse(null);
+                if (!(terminator instanceof Branch)) {
+                    continue;
+                }
+                BoundsCheck check = boundsCheck((Branch) terminator);
+                if (check == null) {
+                    continue;
+                }
+                boolean lowerSafe = isNonNegative(check.index);
+                boolean upperSafe = guardedBy(block, check.index, check.array);
+                if (lowerSafe && upperSafe) {
+                    Transformations.replaceBranch(proc, cfg, check.branch, false);
+                    eliminated++;
+                } else if (lowerSafe) {
+                    check.branch.setCondition(VarRef(check.aboveLength));
+                    narrowed++;
+                } else if (upperSafe) {
+                    check.branch.setCondition(VarRef(check.belowZero));
+                    narrowed++;
+                }
+            }
+            if (eliminated + narrowed > 0) {
+                Transformations.removeUnusedInstructions(proc);
+            }
+        }
+
+        private Instruction definition(Operand operand) {
+            if (operand instanceof VarRef) {
+                return definitions.get(((VarRef) operand).getVariable());
+            }
+            return null;
+        }
+
+        private BinaryOperation binary(Operand operand, Class<? extends Operator> operator) {
+            Instruction def = definition(operand);
+            if (def instanceof BinaryOperation
+                    && operator.isInstance(((BinaryOperation) def).getOperator())) {
+                return (BinaryOperation) def;
+            }
+            return null;
+        }
+
+        /**
+         * Matches {@code br ((index < 0) | (length(array) - 1 < index)), error, ok}.
+         */
+        private BoundsCheck boundsCheck(Branch branch) {
+            BinaryOperation or = binary(branch.getCondition(), Or.class);
+            if (or == null) {
+                return null;
+            }
+            BinaryOperation below = binary(or.getLeft(), Slt.class);
+            BinaryOperation above = binary(or.getRight(), Slt.class);
+            if (below == null || above == null || !isConst(below.getRight(), 0)) {
+                return null;
+            }
+            BinaryOperation lengthMinusOne = binary(above.getLeft(), Sub.class);
+            if (lengthMinusOne == null || !isConst(lengthMinusOne.getRight(), 1)
+                    || !sameValue(below.getLeft(), above.getRight())) {
+                return null;
+            }
+            Variable array = arrayOfLength(lengthMinusOne.getLeft());
+            if (array == null) {
+                return null;
+            }
+            BoundsCheck check = new BoundsCheck();
+            check.branch = branch;
+            check.index = below.getLeft();
+            check.array = array;
+            check.belowZero = below.getVar();
+            check.aboveLength = above.getVar();
+            return check;
+        }
+
+        /**
+         * The array, if the operand is loaded from the length field of an array.
+         */
+        private Variable arrayOfLength(Operand operand) {
+            Instruction load = definition(operand);
+            if (!(load instanceof Load)) {
+                return null;
+            }
+            Instruction gep = definition(((Load) load).getAddress());
+            if (!(gep instanceof GetElementPtr)) {
+                return null;
+            }
+            GetElementPtr lengthAddr = (GetElementPtr) gep;
+            OperandList indices = lengthAddr.getIndices();
+            if (!(lengthAddr.getBaseAddress() instanceof VarRef) || indices.size() != 2
+                    || !isConst(indices.get(0), 0) || !isConst(indices.get(1), 0)
+                    || !isArray(lengthAddr.getBaseAddress().calculateType())) {
+                return null;
+            }
+            return ((VarRef) lengthAddr.getBaseAddress()).getVariable();
+        }
+
+        private static boolean isArray(Type type) {
+            return type instanceof TypePointer
+                    && ((TypePointer) type).getTo() instanceof TypeStruct
+                    && ((TypeStruct) ((TypePointer) type).getTo()).getName().startsWith("array_");
+        }
+
+        /**
+         * Checks whether the block is only reached on the true edge of
+         * {@code index < length(array)}.
+         */
+        private boolean guardedBy(BasicBlock block, Operand index, Variable array) {
+            return guardedBy(block, condition -> {
+                BinaryOperation less = binary(condition, Slt.class);
+                return less != null && sameValue(less.getLeft(), index)
+                        && arrayOfLength(less.getRight()) == array;
+            });
+        }
+
+        /**
+         * Checks whether the block is dominated by the true edge of a branch
+         * whose condition satisfies the predicate.
+         */
+        private boolean guardedBy(BasicBlock block, Predicate<Operand> condition) {
+            for (BasicBlock b = block; b != null; b = cfg.getImmediateDominator(b)) {
+                if (cfg.getPredecessors(b).size() != 1) {
+                    continue;
+                }
+                BasicBlock pred = cfg.getPredecessors(b).get(0);
+                TerminatingInstruction terminator = pred.getTerminatingInstruction().orElse(null);
+                if (terminator instanceof Branch) {
+                    Branch branch = (Branch) terminator;
+                    if (branch.getIfTrueLabel() == b && branch.getIfFalseLabel() != b
+                            && condition.test(branch.getCondition())) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private boolean isNonNegative(Operand operand) {
+            if (operand instanceof ConstInt) {
+                return ((ConstInt) operand).getIntVal() >= 0;
+            }
+            if (!(operand instanceof VarRef)) {
+                return false;
+            }
+            Variable var = ((VarRef) operand).getVariable();
+            Boolean known = nonNegative.get(var);
+            if (known != null) {
+                return known;
+            }
+            Set<Variable> assumed = new HashSet<>();
+            boolean result = isNonNegative(operand, assumed);
+            if (result) {
+                // the assumptions held, so all of them are proven
+                assumed.forEach(v -> nonNegative.put(v, true));
+            }
+            nonNegative.put(var, result);
+            return result;
+        }
+
+        /**
+         * Checks non-negativity, assuming it for the phi nodes in the set,
+         * which makes induction variables provable.
+         */
+        private boolean isNonNegative(Operand operand, Set<Variable> assumed) {
+            if (operand instanceof ConstInt) {
+                return ((ConstInt) operand).getIntVal() >= 0;
+            }
+            if (!(operand instanceof VarRef)) {
+                return false;
+            }
+            Variable var = ((VarRef) operand).getVariable();
+            if (assumed.contains(var) || Boolean.TRUE.equals(nonNegative.get(var))) {
+                return true;
+            }
+            if (Boolean.FALSE.equals(nonNegative.get(var))) {
+                return false;
+            }
+            Instruction def = definitions.get(var);
+            if (def instanceof PhiNode) {
+                assumed.add(var);
+                for (PhiNodeChoice choice : ((PhiNode) def).getChoices()) {
+                    if (!isNonNegative(choice.getValue(), assumed)) {
+                        return false;
+                    }
+                }
+                return true;
+            } else if (def instanceof Load) {
+                // array lengths are checked to be non-negative on allocation
+                return arrayOfLength(operand) != null;
+            } else if (def instanceof BinaryOperation
+                    && ((BinaryOperation) def).getOperator() instanceof Add) {
+                BinaryOperation add = (BinaryOperation) def;
+                Operand other = isConst(add.getRight(), 1) ? add.getLeft()
+                        : isConst(add.getLeft(), 1) ? add.getRight() : null;
+                // x + 1 cannot overflow where x < n holds
+                BasicBlock block = (BasicBlock) def.getParent();
+                return other != null && isNonNegative(other, assumed)
+                        && guardedBy(block, condition -> {
+                            BinaryOperation less = binary(condition, Slt.class);
+                            return less != null && sameValue(less.getLeft(), other);
+                        });
+            }
+            return false;
+        }
+
+        private static boolean isConst(Operand operand, int value) {
+            return operand instanceof ConstInt && ((ConstInt) operand).getIntVal() == value;
+        }
+
+        private static boolean sameValue(Operand a, Operand b) {
+            if (a instanceof VarRef && b instanceof VarRef) {
+                return ((VarRef) a).getVariable() == ((VarRef) b).getVariable();
+            }
+            return a instanceof ConstInt && b instanceof ConstInt
+                    && ((ConstInt) a).getIntVal() == ((ConstInt) b).getIntVal();
+        }
+    }
+}
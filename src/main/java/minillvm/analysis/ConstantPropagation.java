@@ -0,0 +1,303 @@
+package minillvm.analysis;
+
+import minillvm.ast.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static minillvm.ast.Ast.*;
+
+/**
+ * Sparse conditional constant propagation, following Wegman and Zadeck,
+ * "Constant Propagation with Conditional Branches".
+ *
+ * <p>Every variable starts as unknown and can only move down to a constant and then to
+ * overdefined. Only the edges which are taken under the current assumptions are
+ * executable, so constants flowing around loops and branches on constants are found
+ * together. Afterwards uses of constant variables are replaced by the constant, branches
+ * on constants become jumps and blocks which are never executed are removed.
+ * Expects SSA form, see {@link PromoteAllocas}.
+ */
+public class ConstantPropagation implements Pass {
+    /** Marks values which are not constant, never inserted into the program. */
+    private static final Const OVERDEFINED = Nullpointer();
+
+    @Override
+    public String getName() {
+        return "sccp";
+    }
+
+    @Override
+    public void run(Prog prog, PassStatistics statistics) {
+        for (Proc proc : prog.getProcedures()) {
+            if (proc.getBasicBlocks().isEmpty()) {
+                continue;
+            }
+            Lattice lattice = new Lattice(proc);
+            lattice.analyze();
+            lattice.rewrite();
+            statistics.add(getName(), proc.getName(), "folded", lattice.folded);
+            statistics.add(getName(), proc.getName(), "branches", lattice.branches);
+            statistics.add(getName(), proc.getName(), "blocks", lattice.blocks);
+        }
+    }
+
+    /**
+     * The analysis of one procedure.
+     */
+    private static class Lattice {
+        private final Proc proc;
+        private final ControlFlowGraph cfg;
+        /** Variables known to be constant, ConstInt or ConstBool. */
+        private final Map<Variable, Const> constants = new HashMap<>();
+        private final Set<Variable> overdefined = new HashSet<>();
+        private final Map<BasicBlock, Set<BasicBlock>> executableEdges = new HashMap<>();
+        private final Set<BasicBlock> executable = new HashSet<>();
+        int folded;
+        int branches;
+        int blocks;
+
+        Lattice(Proc proc) {
+            this.proc = proc;
+            this.cfg = new ControlFlowGraph(proc);
+            overdefined.addAll(proc.getParameters());
+        }
+
+        void analyze() {
+            executable.add(cfg.getEntry());
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                // reverse postorder, so most definitions are visited before their uses
+                for (BasicBlock block : cfg.getReachableBlocks()) {
+                    if (!executable.contains(block)) {
+                        continue;
+                    }
+                    for (Instruction instr : block) {
+                        if (instr instanceof Assign) {
+                            changed |= update(((Assign) instr).getVar(), evaluate(instr, block));
+                        } else if (instr instanceof TerminatingInstruction) {
+                            changed |= markSuccessors((TerminatingInstruction) instr, block);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Lowers the value of the variable.
+         *
+         * @param value the new value, a constant, {@link #OVERDEFINED} or null for unknown
+         * @return whether the value changed
+         */
+        private boolean update(Variable var, Const value) {
+            if (value == null || overdefined.contains(var)) {
+                return false;
+            }
+            Const old = constants.get(var);
+            if (value == OVERDEFINED || (old != null && !sameConst(old, value))) {
+                constants.remove(var);
+                overdefined.add(var);
+                return true;
+            }
+            if (old == null) {
+                constants.put(var, value);
+                return true;
+            }
+            return false;
+        }
+
+        private boolean markSuccessors(TerminatingInstruction terminator, BasicBlock block) {
+            List<BasicBlock> targets = new ArrayList<>();
+            if (terminator instanceof Jump) {
+                targets.add(((Jump) terminator).getLabel());
+            } else if (terminator instanceof Branch) {
+                Branch branch = (Branch) terminator;
+                Const condition = valueOf(branch.getCondition());
+                if (condition == OVERDEFINED) {
+                    targets.add(branch.getIfTrueLabel());
+                    targets.add(branch.getIfFalseLabel());
+                } else if (condition instanceof ConstBool) {
+                    targets.add(((ConstBool) condition).getBoolVal()
+                            ? branch.getIfTrueLabel() : branch.getIfFalseLabel());
+                }
+            }
+            boolean changed = false;
+            for (BasicBlock target : targets) {
+                if (executableEdges.computeIfAbsent(block, b -> new HashSet<>()).add(target)) {
+                    executable.add(target);
+                    changed = true;
+                }
+            }
+            return changed;
+        }
+
+        private boolean isExecutable(BasicBlock from, BasicBlock to) {
+            return executableEdges.getOrDefault(from, Set.of()).contains(to);
+        }
+
+        /**
+         * The value of an operand, null if it is not known yet.
+         */
+        private Const valueOf(Operand operand) {
+            if (operand instanceof ConstInt || operand instanceof ConstBool) {
+                return (Const) operand;
+            } else if (operand instanceof VarRef) {
+                Variable var = ((VarRef) operand).getVariable();
+                return overdefined.contains(var) ? OVERDEFINED : constants.get(var);
+            }
+            // addresses and procedures are not tracked
+            return OVERDEFINED;
+        }
+
+        private Const evaluate(Instruction instr, BasicBlock block) {
+            if (instr instanceof PhiNode) {
+                Const result = null;
+                for (PhiNodeChoice choice : ((PhiNode) instr).getChoices()) {
+                    if (!isExecutable(choice.getLabel(), block)) {
+                        continue;
+                    }
+                    Const value = valueOf(choice.getValue());
+                    if (value == OVERDEFINED || (result != null && value != null
+                            && !sameConst(result, value))) {
+                        return OVERDEFINED;
+                    } else if (value != null) {
+                        result = value;
+                    }
+                }
+                return result;
+            } else if (instr instanceof BinaryOperation) {
+                BinaryOperation op = (BinaryOperation) instr;
+                Const left = valueOf(op.getLeft());
+                Const right = valueOf(op.getRight());
+                if (left == OVERDEFINED || right == OVERDEFINED) {
+                    return OVERDEFINED;
+                } else if (left == null || right == null) {
+                    return null;
+                }
+                Const result = fold(op.getOperator(), left, right);
+                return result != null ? result : OVERDEFINED;
+            }
+            return OVERDEFINED;
+        }
+
+        /**
+         * Replaces uses of constants, resolves constant branches and removes the
+         * blocks which are never executed.
+         */
+        void rewrite() {
+            List<VarRef> uses = new ArrayList<>();
+            proc.accept(new Element.DefaultVisitor() {
+                @Override
+                public void visit(VarRef ref) {
+                    super.visit(ref);
+                    if (constants.containsKey(ref.getVariable())) {
+                        uses.add(ref);
+                    }
+                }
+            });
+            for (VarRef ref : uses) {
+                ref.replaceBy(constants.get(ref.getVariable()).copy());
+            }
+            folded = uses.size();
+
+            for (BasicBlock block : proc.getBasicBlocks()) {
+                TerminatingInstruction terminator = block.getTerminatingInstruction().orElse(null);
+                if (!executable.contains(block) || !(terminator instanceof Branch)) {
+                    continue;
+                }
+                Branch branch = (Branch) terminator;
+                if (branch.getCondition() instanceof ConstBool) {
+                    boolean taken = ((ConstBool) branch.getCondition()).getBoolVal();
+                    BasicBlock target = taken ? branch.getIfTrueLabel() : branch.getIfFalseLabel();
+                    BasicBlock other = taken ? branch.getIfFalseLabel() : branch.getIfTrueLabel();
+                    block.set(block.indexOf(branch), Jump(target));
+                    if (other != target) {
+                        Transformations.removeChoices(other, block);
+                    }
+                    branches++;
+                }
+            }
+
+            BasicBlockList basicBlocks = proc.getBasicBlocks();
+            for (int i = basicBlocks.size() - 1; i >= 0; i--) {
+                BasicBlock block = basicBlocks.get(i);
+                if (executable.contains(block)) {
+                    continue;
+                }
+                for (BasicBlock succ : ControlFlowGraph.successorsOf(block)) {
+                    Transformations.removeChoices(succ, block);
+                }
+                basicBlocks.remove(i);
+                blocks++;
+            }
+
+            if (folded + branches + blocks > 0) {
+                Transformations.removeUnusedInstructions(proc);
+            }
+        }
+    }
+
+    /**
+     * Computes a binary operation like the generated code would,
+     * null if the result is undefined or not a constant.
+     */
+    private static Const fold(Operator operator, Const left, Const right) {
+        if (left instanceof ConstBool && right instanceof ConstBool) {
+            boolean l = ((ConstBool) left).getBoolVal();
+            boolean r = ((ConstBool) right).getBoolVal();
+            if (operator instanceof And) {
+                return ConstBool(l && r);
+            } else if (operator instanceof Or) {
+                return ConstBool(l || r);
+            } else if (operator instanceof Xor) {
+                return ConstBool(l ^ r);
+            } else if (operator instanceof Eq) {
+                return ConstBool(l == r);
+            }
+            return null;
+        }
+        if (!(left instanceof ConstInt) || !(right instanceof ConstInt)) {
+            return null;
+        }
+        int l = ((ConstInt) left).getIntVal();
+        int r = ((ConstInt) right).getIntVal();
+        if (operator instanceof Add) {
+            return ConstInt(l + r);
+        } else if (operator instanceof Sub) {
+            return ConstInt(l - r);
+        } else if (operator instanceof Mul) {
+            return ConstInt(l * r);
+        } else if (operator instanceof Sdiv || operator instanceof Srem) {
+            if (r == 0 || (l == Integer.MIN_VALUE && r == -1)) {
+                // undefined in LLVM, left to the runtime checks
+                return null;
+            }
+            return ConstInt(operator instanceof Sdiv ? l / r : l % r);
+        } else if (operator instanceof And) {
+            return ConstInt(l & r);
+        } else if (operator instanceof Or) {
+            return ConstInt(l | r);
+        } else if (operator instanceof Xor) {
+            return ConstInt(l ^ r);
+        } else if (operator instanceof Eq) {
+            return ConstBool(l == r);
+        } else if (operator instanceof Slt) {
+            return ConstBool(l < r);
+        }
+        return null;
+    }
+
+    private static boolean sameConst(Const a, Const b) {
+        if (a instanceof ConstInt && b instanceof ConstInt) {
+            return ((ConstInt) a).getIntVal() == ((ConstInt) b).getIntVal();
+        } else if (a instanceof ConstBool && b instanceof ConstBool) {
+            return ((ConstBool) a).getBoolVal() == ((ConstBool) b).getBoolVal();
+        }
+        return false;
+    }
+}
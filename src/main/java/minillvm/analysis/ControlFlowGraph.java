@@ -0,0 +1,220 @@
+package minillvm.analysis;
+
+import minillvm.ast.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Control flow graph and dominator tree of a procedure.
+ *
+ * <p>Dominators are computed with the iterative algorithm of Cooper, Harvey and Kennedy
+ * ("A Simple, Fast Dominance Algorithm") over the blocks reachable from the entry block.
+ * The graph is a snapshot, it has to be recomputed after the blocks or jumps change.
+ */
+public class ControlFlowGraph {
+    private final BasicBlock entry;
+    private final Map<BasicBlock, List<BasicBlock>> successors = new HashMap<>();
+    private final Map<BasicBlock, List<BasicBlock>> predecessors = new HashMap<>();
+    /** Reachable blocks in reverse postorder, starting with the entry block. */
+    private final List<BasicBlock> reversePostorder = new ArrayList<>();
+    private final Map<BasicBlock, Integer> postorderIndex = new HashMap<>();
+    private final Map<BasicBlock, BasicBlock> idom = new HashMap<>();
+    private final Map<BasicBlock, List<BasicBlock>> dominatorTreeChildren = new HashMap<>();
+    private Map<BasicBlock, Set<BasicBlock>> dominanceFrontiers;
+
+    public ControlFlowGraph(Proc proc) {
+        this.entry = proc.getBasicBlocks().get(0);
+        for (BasicBlock block : proc.getBasicBlocks()) {
+            successors.put(block, successorsOf(block));
+            predecessors.put(block, new ArrayList<>());
+            dominatorTreeChildren.put(block, new ArrayList<>());
+        }
+        for (BasicBlock block : proc.getBasicBlocks()) {
+            for (BasicBlock succ : successors.get(block)) {
+                predecessors.get(succ).add(block);
+            }
+        }
+        computeReversePostorder();
+        computeDominators();
+    }
+
+    /**
+     * The successors of a block, a block appears twice if both branch targets are equal.
+     */
+    public static List<BasicBlock> successorsOf(BasicBlock block) {
+        TerminatingInstruction terminator = block.getTerminatingInstruction().orElse(null);
+        if (terminator instanceof Jump) {
+            return List.of(((Jump) terminator).getLabel());
+        } else if (terminator instanceof Branch) {
+            Branch branch = (Branch) terminator;
+            return List.of(branch.getIfTrueLabel(), branch.getIfFalseLabel());
+        }
+        return List.of();
+    }
+
+    private void computeReversePostorder() {
+        // iterative depth first search, to not overflow the stack on large procedures
+        List<BasicBlock> postorder = new ArrayList<>();
+        Set<BasicBlock> visited = new LinkedHashSet<>();
+        List<BasicBlock> stack = new ArrayList<>();
+        List<Integer> nextSuccessor = new ArrayList<>();
+        visited.add(entry);
+        stack.add(entry);
+        nextSuccessor.add(0);
+        while (!stack.isEmpty()) {
+            int top = stack.size() - 1;
+            BasicBlock block = stack.get(top);
+            List<BasicBlock> succs = successors.get(block);
+            int next = nextSuccessor.get(top);
+            if (next < succs.size()) {
+                nextSuccessor.set(top, next + 1);
+                BasicBlock succ = succs.get(next);
+                if (visited.add(succ)) {
+                    stack.add(succ);
+                    nextSuccessor.add(0);
+                }
+            } else {
+                stack.remove(top);
+                nextSuccessor.remove(top);
+                postorderIndex.put(block, postorder.size());
+                postorder.add(block);
+            }
+        }
+        reversePostorder.addAll(postorder);
+        Collections.reverse(reversePostorder);
+    }
+
+    private void computeDominators() {
+        idom.put(entry, entry);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : reversePostorder) {
+                if (block == entry) {
+                    continue;
+                }
+                BasicBlock newIdom = null;
+                for (BasicBlock pred : predecessors.get(block)) {
+                    if (!idom.containsKey(pred)) {
+                        // not processed yet or unreachable
+                        continue;
+                    }
+                    newIdom = newIdom == null ? pred : intersect(pred, newIdom);
+                }
+                if (newIdom != idom.get(block)) {
+                    idom.put(block, newIdom);
+                    changed = true;
+                }
+            }
+        }
+        for (BasicBlock block : reversePostorder) {
+            if (block != entry) {
+                dominatorTreeChildren.get(idom.get(block)).add(block);
+            }
+        }
+    }
+
+    private BasicBlock intersect(BasicBlock a, BasicBlock b) {
+        while (a != b) {
+            while (postorderIndex.get(a) < postorderIndex.get(b)) {
+                a = idom.get(a);
+            }
+            while (postorderIndex.get(b) < postorderIndex.get(a)) {
+                b = idom.get(b);
+            }
+        }
+        return a;
+    }
+
+    public BasicBlock getEntry() {
+        return entry;
+    }
+
+    /**
+     * The blocks reachable from the entry block, in reverse postorder.
+     */
+    public List<BasicBlock> getReachableBlocks() {
+        return reversePostorder;
+    }
+
+    public boolean isReachable(BasicBlock block) {
+        return postorderIndex.containsKey(block);
+    }
+
+    public List<BasicBlock> getSuccessors(BasicBlock block) {
+        return successors.get(block);
+    }
+
+    /**
+     * All predecessors including unreachable ones, a block appears once per edge.
+     */
+    public List<BasicBlock> getPredecessors(BasicBlock block) {
+        return predecessors.get(block);
+    }
+
+    /**
+     * The immediate dominator of a reachable block, null for the entry block.
+     */
+    public BasicBlock getImmediateDominator(BasicBlock block) {
+        return block == entry ? null : idom.get(block);
+    }
+
+    /**
+     * The blocks immediately dominated by the given block.
+     */
+    public List<BasicBlock> getDominatorTreeChildren(BasicBlock block) {
+        return dominatorTreeChildren.get(block);
+    }
+
+    /**
+     * Checks whether a dominates b, every block dominates itself.
+     */
+    public boolean dominates(BasicBlock a, BasicBlock b) {
+        if (!isReachable(a) || !isReachable(b)) {
+            return false;
+        }
+        while (b != a && b != entry) {
+            b = idom.get(b);
+        }
+        return b == a;
+    }
+
+    /**
+     * The dominance frontier of a reachable block: the blocks where its dominance ends.
+     */
+    public Set<BasicBlock> getDominanceFrontier(BasicBlock block) {
+        if (dominanceFrontiers == null) {
+            computeDominanceFrontiers();
+        }
+        return dominanceFrontiers.getOrDefault(block, Set.of());
+    }
+
+    private void computeDominanceFrontiers() {
+        dominanceFrontiers = new HashMap<>();
+        for (BasicBlock block : reversePostorder) {
+            dominanceFrontiers.put(block, new LinkedHashSet<>());
+        }
+        for (BasicBlock block : reversePostorder) {
+            List<BasicBlock> preds = predecessors.get(block);
+            if (preds.size() < 2) {
+                continue;
+            }
+            for (BasicBlock pred : preds) {
+                if (!isReachable(pred)) {
+                    continue;
+                }
+                BasicBlock runner = pred;
+                while (runner != idom.get(block)) {
+                    dominanceFrontiers.get(runner).add(block);
+                    runner = idom.get(runner);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package minillvm.analysis;
+
+import minillvm.ast.*;
+
+import java.util.List;
+import java.util.Map;
+
+import static minillvm.ast.Ast.*;
+
+/**
+ * Cleans up the control flow graph and removes dead instructions.
+ *
+ * <p>The translation leaves behind blocks after returns which are never reached,
+ * blocks which only jump to the next block, and chains of blocks which are always
+ * executed one after another. This pass
+ * <ul>
+ *     <li>removes instructions without side effects whose result is not used,</li>
+ *     <li>removes blocks which cannot be reached from the entry block,</li>
+ *     <li>threads jumps to blocks which only jump on, and</li>
+ *     <li>merges a block with its successor, if it is the only predecessor.</li>
+ * </ul>
+ * Runs until nothing changes.
+ */
+public class DeadCodeElimination implements Pass {
+
+    @Override
+    public String getName() {
+        return "dce";
+    }
+
+    @Override
+    public void run(Prog prog, PassStatistics statistics) {
+        for (Proc proc : prog.getProcedures()) {
+            if (proc.getBasicBlocks().isEmpty()) {
+                continue;
+            }
+            Cleanup cleanup = new Cleanup(proc);
+            cleanup.run();
+            statistics.add(getName(), proc.getName(), "instructions", cleanup.instructions);
+            statistics.add(getName(), proc.getName(), "unreachable", cleanup.unreachable);
+            statistics.add(getName(), proc.getName(), "threaded", cleanup.threaded);
+            statistics.add(getName(), proc.getName(), "merged", cleanup.merged);
+        }
+    }
+
+    /**
+     * The cleanup of one procedure.
+     */
+    private static class Cleanup {
+        private final Proc proc;
+        int instructions;
+        int unreachable;
+        int threaded;
+        int merged;
+
+        Cleanup(Proc proc) {
+            this.proc = proc;
+        }
+
+        void run() {
+            instructions += Transformations.removeUnusedInstructions(proc);
+            boolean changed = true;
+            while (changed) {
+                // every step changes the graph, so each one starts with a fresh snapshot
+                changed = removeUnreachableBlocks(new ControlFlowGraph(proc))
+                        || threadJump(new ControlFlowGraph(proc))
+                        || mergeBlocks(new ControlFlowGraph(proc));
+            }
+        }
+
+        private boolean removeUnreachableBlocks(ControlFlowGraph cfg) {
+            BasicBlockList blocks = proc.getBasicBlocks();
+            boolean changed = false;
+            for (int i = blocks.size() - 1; i >= 0; i--) {
+                BasicBlock block = blocks.get(i);
+                if (cfg.isReachable(block)) {
+                    continue;
+                }
+                for (BasicBlock succ : cfg.getSuccessors(block)) {
+                    Transformations.removeChoices(succ, block);
+                }
+                blocks.remove(i);
+                unreachable++;
+                changed = true;
+            }
+            return changed;
+        }
+
+        /**
+         * Lets the predecessors of a block which only jumps to a target jump to the
+         * target directly. The block becomes unreachable.
+         */
+        private boolean threadJump(ControlFlowGraph cfg) {
+            for (BasicBlock block : cfg.getReachableBlocks()) {
+                if (block == cfg.getEntry() || block.size() != 1
+                        || !(block.get(0) instanceof Jump)) {
+                    continue;
+                }
+                BasicBlock target = ((Jump) block.get(0)).getLabel();
+                if (target == block || !canThread(cfg, block, target)) {
+                    continue;
+                }
+                for (BasicBlock pred : List.copyOf(cfg.getPredecessors(block))) {
+                    redirect(pred, block, target);
+                    // the value from block is defined in a dominator of block,
+                    // which dominates pred as well
+                    for (PhiNode phi : target.getPhiNodes()) {
+                        phi.getChoices().add(PhiNodeChoice(pred, valueFrom(phi, block).copy()));
+                    }
+                }
+                Transformations.removeChoices(target, block);
+                threaded++;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Phi nodes in the target cannot tell apart two edges from the same block.
+         */
+        private static boolean canThread(ControlFlowGraph cfg, BasicBlock block,
+                                         BasicBlock target) {
+            if (target.getPhiNodes().isEmpty()) {
+                return true;
+            }
+            List<BasicBlock> preds = cfg.getPredecessors(block);
+            for (BasicBlock pred : preds) {
+                if (cfg.getPredecessors(target).contains(pred)
+                        || preds.indexOf(pred) != preds.lastIndexOf(pred)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static Operand valueFrom(PhiNode phi, BasicBlock pred) {
+            for (PhiNodeChoice choice : phi.getChoices()) {
+                if (choice.getLabel() == pred) {
+                    return choice.getValue();
+                }
+            }
+            throw new IllegalStateException("Phi node " + phi.getVar().getName()
+                    + " has no value for the predecessor " + pred.getName());
+        }
+
+        /**
+         * Changes the edges from pred to block into edges to target.
+         */
+        private static void redirect(BasicBlock pred, BasicBlock block, BasicBlock target) {
+            TerminatingInstruction terminator = pred.getTerminatingInstruction().get();
+            if (terminator instanceof Jump) {
+                if (((Jump) terminator).getLabel() == block) {
+                    ((Jump) terminator).setLabel(target);
+                }
+            } else if (terminator instanceof Branch) {
+                Branch branch = (Branch) terminator;
+                if (branch.getIfTrueLabel() == block) {
+                    branch.setIfTrueLabel(target);
+                }
+                if (branch.getIfFalseLabel() == block) {
+                    branch.setIfFalseLabel(target);
+                }
+                if (branch.getIfTrueLabel() == branch.getIfFalseLabel()) {
+                    pred.set(pred.indexOf(branch), Jump(target));
+                }
+            }
+        }
+
+        /**
+         * Appends a block to its only predecessor, if the predecessor jumps to it.
+         */
+        private boolean mergeBlocks(ControlFlowGraph cfg) {
+            for (BasicBlock block : cfg.getReachableBlocks()) {
+                TerminatingInstruction terminator = block.getTerminatingInstruction().orElse(null);
+                if (!(terminator instanceof Jump)) {
+                    continue;
+                }
+                BasicBlock succ = ((Jump) terminator).getLabel();
+                if (succ == block || succ == cfg.getEntry()
+                        || cfg.getPredecessors(succ).size() != 1) {
+                    continue;
+                }
+                merge(block, succ, cfg);
+                merged++;
+                return true;
+            }
+            return false;
+        }
+
+        private void merge(BasicBlock block, BasicBlock succ, ControlFlowGraph cfg) {
+            // phi nodes with a single predecessor are just their value
+            List<PhiNode> phis = succ.getPhiNodes();
+            if (!phis.isEmpty()) {
+                Map<Variable, List<VarRef>> uses = PromoteAllocas.collectUses(proc);
+                for (PhiNode phi : phis) {
+                    Operand value = phi.getChoices().get(0).getValue();
+                    for (VarRef ref : uses.getOrDefault(phi.getVar(), List.of())) {
+                        ref.replaceBy(value.copy());
+                    }
+                    succ.remove(succ.indexOf(phi));
+                }
+            }
+            block.remove(block.size() - 1);
+            while (!succ.isEmpty()) {
+                Instruction instr = succ.get(0);
+                succ.remove(0);
+                block.add(instr);
+            }
+            for (BasicBlock next : cfg.getSuccessors(succ)) {
+                for (PhiNode phi : next.getPhiNodes()) {
+                    for (PhiNodeChoice choice : phi.getChoices()) {
+                        if (choice.getLabel() == succ) {
+                            choice.setLabel(block);
+                        }
+                    }
+                }
+            }
+            BasicBlockList blocks = proc.getBasicBlocks();
+            blocks.remove(blocks.indexOf(succ));
+        }
+    }
+}
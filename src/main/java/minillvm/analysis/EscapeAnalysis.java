@@ -0,0 +1,189 @@
+package minillvm.analysis;
+
+import minillvm.ast.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static minillvm.ast.Ast.*;
+
+/**
+ * Allocates objects on the stack which do not outlive their procedure.
+ *
+ * <p>An object escapes if a pointer to it, or to one of its fields, is stored to memory,
+ * returned, merged in a phi node or passed to a procedure whose parameter escapes.
+ * Parameters are analyzed the same way, starting from the assumption that no parameter
+ * escapes until nothing changes, so recursion is handled. Calls through vtables let
+ * their arguments escape.
+ *
+ * <p>A heap allocation of a struct which does not escape is replaced by an alloca in the
+ * entry block. The fields are set to their default values where the allocation was,
+ * since the alloca is reused when the allocation is executed again in a loop.
+ * Constructors return their object, so this mostly applies after {@link Inliner}.
+ */
+public class EscapeAnalysis implements Pass {
+
+    @Override
+    public String getName() {
+        return "escape";
+    }
+
+    @Override
+    public void run(Prog prog, PassStatistics statistics) {
+        Map<Proc, Set<Parameter>> escapingParams = new HashMap<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Proc proc : prog.getProcedures()) {
+                if (proc.getBasicBlocks().isEmpty()) {
+                    continue;
+                }
+                Set<Parameter> escaping =
+                        escapingParams.computeIfAbsent(proc, p -> new HashSet<>());
+                for (Parameter param : proc.getParameters()) {
+                    if (!escaping.contains(param) && escapes(proc, param, escapingParams)) {
+                        escaping.add(param);
+                        changed = true;
+                    }
+                }
+            }
+        }
+        for (Proc proc : prog.getProcedures()) {
+            int moved = 0;
+            for (BasicBlock block : proc.getBasicBlocks()) {
+                for (int i = 0; i < block.size(); i++) {
+                    Instruction instr = block.get(i);
+                    if (instr instanceof Alloc
+                            && ((Alloc) instr).getSizeInBytes() instanceof Sizeof
+                            && !escapes(proc, ((Alloc) instr).getVar(), escapingParams)) {
+                        moveToStack(proc, (Alloc) instr);
+                        moved++;
+                    }
+                }
+            }
+            statistics.add(getName(), proc.getName(), "stack", moved);
+        }
+    }
+
+    /**
+     * Checks whether a pointer or a pointer derived from it escapes the procedure.
+     */
+    private static boolean escapes(Proc proc, Variable root,
+                                   Map<Proc, Set<Parameter>> escapingParams) {
+        Set<Variable> derived = new HashSet<>();
+        derived.add(root);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : proc.getBasicBlocks()) {
+                for (Instruction instr : block) {
+                    if (instr instanceof Bitcast || instr instanceof GetElementPtr) {
+                        Operand base = instr instanceof Bitcast
+                                ? ((Bitcast) instr).getExpr()
+                                : ((GetElementPtr) instr).getBaseAddress();
+                        if (refersTo(base, derived) && derived.add(((Assign) instr).getVar())) {
+                            changed = true;
+                        }
+                        if (instr instanceof GetElementPtr
+                                && refersTo(((GetElementPtr) instr).getIndices(), derived)) {
+                            return true;
+                        }
+                    } else if (instr instanceof Load || instr instanceof CommentInstr) {
+                        // reading through the pointer is fine
+                        continue;
+                    } else if (instr instanceof Store) {
+                        if (refersTo(((Store) instr).getValue(), derived)) {
+                            return true;
+                        }
+                    } else if (instr instanceof BinaryOperation
+                            && ((BinaryOperation) instr).getOperator() instanceof Eq) {
+                        // null checks
+                        continue;
+                    } else if (instr instanceof Call) {
+                        if (callLetsEscape((Call) instr, derived, escapingParams)) {
+                            return true;
+                        }
+                    } else if (refersTo(instr, derived)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean callLetsEscape(Call call, Set<Variable> derived,
+                                          Map<Proc, Set<Parameter>> escapingParams) {
+        if (refersTo(call.getFunction(), derived)) {
+            return true;
+        }
+        Proc callee = call.getFunction() instanceof ProcedureRef
+                ? ((ProcedureRef) call.getFunction()).getProcedure() : null;
+        for (int i = 0; i < call.getArguments().size(); i++) {
+            if (!refersTo(call.getArguments().get(i), derived)) {
+                continue;
+            }
+            if (callee == null || callee.getBasicBlocks().isEmpty()
+                    || escapingParams.getOrDefault(callee, Set.of())
+                    .contains(callee.getParameters().get(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean refersTo(Element element, Set<Variable> vars) {
+        boolean[] found = {false};
+        element.accept(new Element.DefaultVisitor() {
+            @Override
+            public void visit(VarRef ref) {
+                super.visit(ref);
+                found[0] |= vars.contains(ref.getVariable());
+            }
+        });
+        return found[0];
+    }
+
+    /**
+     * Replaces the allocation by an alloca in the entry block and initializes the fields.
+     */
+    private static void moveToStack(Proc proc, Alloc alloc) {
+        TypeStruct struct = ((Sizeof) alloc.getSizeInBytes()).getStructType();
+        BasicBlock entry = proc.getBasicBlocks().get(0);
+        TemporaryVar stackObj = TemporaryVar(alloc.getVar().getName() + "_stack");
+        entry.addFront(Alloca(stackObj, struct));
+
+        BasicBlock block = (BasicBlock) alloc.getParent();
+        int index = block.indexOf(alloc);
+        TemporaryVar memory = TemporaryVar(alloc.getVar().getName());
+        block.set(index, Bitcast(memory, alloc.getVar().calculateType(), VarRef(stackObj)));
+        for (int i = 0; i < struct.getFields().size(); i++) {
+            StructField field = struct.getFields().get(i);
+            TemporaryVar fieldAddr = TemporaryVar(field.getName() + "_addr");
+            GetElementPtr gep = GetElementPtr(fieldAddr, VarRef(stackObj),
+                    OperandList(ConstInt(0), ConstInt(i)));
+            gep.setInbounds(true);
+            block.add(++index, gep);
+            Operand value;
+            if (field.getType() instanceof TypeInt) {
+                value = ConstInt(0);
+            } else if (field.getType() instanceof TypeBool) {
+                value = ConstBool(false);
+            } else {
+                // keep the type of the null pointer
+                TemporaryVar nullValue = TemporaryVar("null");
+                block.add(++index, Bitcast(nullValue, field.getType(), Nullpointer()));
+                value = VarRef(nullValue);
+            }
+            block.add(++index, Store(VarRef(fieldAddr), value));
+        }
+        List<VarRef> uses = PromoteAllocas.collectUses(proc)
+                .getOrDefault(alloc.getVar(), List.of());
+        for (VarRef ref : uses) {
+            ref.replaceBy(VarRef(memory));
+        }
+    }
+}
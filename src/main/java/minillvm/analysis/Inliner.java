@@ -0,0 +1,307 @@
+package minillvm.analysis;
+
+import minillvm.ast.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static minillvm.ast.Ast.*;
+
+/**
+ * Inlines direct calls to small procedures.
+ *
+ * <p>A call is inlined if the callee has at most {@code threshold} instructions, is not
+ * recursive through direct calls and returns at all. Callers are handled after their
+ * callees, so the size of a callee already includes what was inlined into it.
+ * Calls through vtables are left alone, their target is not known.
+ *
+ * <p>Inlined calls are reported in the statistics: for every caller, one counter
+ * per callee name.
+ */
+public class Inliner implements Pass {
+    /** The default maximum size of an inlined procedure, in instructions. */
+    public static final int DEFAULT_THRESHOLD = 40;
+
+    private final int threshold;
+
+    public Inliner() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    public Inliner(int threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public String getName() {
+        return "inline";
+    }
+
+    @Override
+    public void run(Prog prog, PassStatistics statistics) {
+        Map<Proc, Set<Proc>> callees = new HashMap<>();
+        for (Proc proc : prog.getProcedures()) {
+            callees.put(proc, directCallees(proc));
+        }
+        Set<Proc> recursive = new HashSet<>();
+        for (Proc proc : prog.getProcedures()) {
+            if (reaches(callees, proc, proc)) {
+                recursive.add(proc);
+            }
+        }
+        for (Proc caller : bottomUp(prog, callees)) {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (BasicBlock block : caller.getBasicBlocks()) {
+                    for (Instruction instr : block) {
+                        Proc callee = directCallee(instr);
+                        if (callee != null && callee != caller && !recursive.contains(callee)
+                                && isInlinable(callee)) {
+                            inline(caller, (Call) instr, callee);
+                            statistics.add(getName(), caller.getName(), callee.getName(), 1);
+                            changed = true;
+                            break;
+                        }
+                    }
+                    if (changed) {
+                        // the blocks of the caller changed
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private static Proc directCallee(Instruction instr) {
+        if (instr instanceof Call && ((Call) instr).getFunction() instanceof ProcedureRef) {
+            return ((ProcedureRef) ((Call) instr).getFunction()).getProcedure();
+        }
+        return null;
+    }
+
+    private static Set<Proc> directCallees(Proc proc) {
+        Set<Proc> result = new LinkedHashSet<>();
+        for (BasicBlock block : proc.getBasicBlocks()) {
+            for (Instruction instr : block) {
+                Proc callee = directCallee(instr);
+                if (callee != null) {
+                    result.add(callee);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static boolean reaches(Map<Proc, Set<Proc>> callees, Proc from, Proc to) {
+        Set<Proc> visited = new HashSet<>();
+        List<Proc> todo = new ArrayList<>(callees.getOrDefault(from, Set.of()));
+        while (!todo.isEmpty()) {
+            Proc proc = todo.remove(todo.size() - 1);
+            if (proc == to) {
+                return true;
+            }
+            if (visited.add(proc)) {
+                todo.addAll(callees.getOrDefault(proc, Set.of()));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The procedures in postorder of the call graph, callees before their callers.
+     */
+    private static List<Proc> bottomUp(Prog prog, Map<Proc, Set<Proc>> callees) {
+        List<Proc> order = new ArrayList<>();
+        Set<Proc> visited = new HashSet<>();
+        for (Proc proc : prog.getProcedures()) {
+            postorder(proc, callees, visited, order);
+        }
+        return order;
+    }
+
+    private static void postorder(Proc proc, Map<Proc, Set<Proc>> callees,
+                                  Set<Proc> visited, List<Proc> order) {
+        if (!visited.add(proc)) {
+            return;
+        }
+        for (Proc callee : callees.getOrDefault(proc, Set.of())) {
+            postorder(callee, callees, visited, order);
+        }
+        order.add(proc);
+    }
+
+    /**
+     * The cost model: small procedures with a body, which return and whose entry block
+     * has no phi nodes. The copied entry block is entered from the block of the call,
+     * which the phi nodes of a loop header in the entry would have no value for.
+     */
+    private boolean isInlinable(Proc callee) {
+        if (callee.getBasicBlocks().isEmpty()
+                || !callee.getBasicBlocks().get(0).getPhiNodes().isEmpty()) {
+            return false;
+        }
+        int size = 0;
+        boolean returns = false;
+        for (BasicBlock block : callee.getBasicBlocks()) {
+            for (Instruction instr : block) {
+                if (!(instr instanceof CommentInstr)) {
+                    size++;
+                }
+                returns |= instr instanceof ReturnExpr || instr instanceof ReturnVoid;
+            }
+        }
+        return returns && size <= threshold;
+    }
+
+    /**
+     * Copies the stored attributes, which only affect how the instruction is printed.
+     */
+    private static void keepHints(Instruction original, Instruction copy) {
+        if (original instanceof Branch) {
+            ((Branch) copy).setTrueWeight(((Branch) original).getTrueWeight());
+            ((Branch) copy).setFalseWeight(((Branch) original).getFalseWeight());
+        } else if (original instanceof GetElementPtr) {
+            ((GetElementPtr) copy).setInbounds(((GetElementPtr) original).getInbounds());
+        } else if (original instanceof HaltWithError) {
+            ((HaltWithError) copy).setLine(((HaltWithError) original).getLine());
+            ((HaltWithError) copy).setColumn(((HaltWithError) original).getColumn());
+        }
+    }
+
+    /**
+     * Replaces the call by a copy of the callee's blocks. The block of the call is split,
+     * the returns of the copy jump to the second half and the result becomes a phi node.
+     */
+    private static void inline(Proc caller, Call call, Proc callee) {
+        BasicBlock block = (BasicBlock) call.getParent();
+        BasicBlock rest = BasicBlock();
+        rest.setName(callee.getName() + "_return");
+        int index = block.indexOf(call);
+        while (block.size() > index + 1) {
+            Instruction instr = block.get(index + 1);
+            block.remove(index + 1);
+            rest.add(instr);
+        }
+        for (BasicBlock succ : ControlFlowGraph.successorsOf(rest)) {
+            for (PhiNode phi : succ.getPhiNodes()) {
+                for (PhiNodeChoice choice : phi.getChoices()) {
+                    if (choice.getLabel() == block) {
+                        choice.setLabel(rest);
+                    }
+                }
+            }
+        }
+
+        // copy the blocks and the instructions, the references still point into the callee
+        Map<BasicBlock, BasicBlock> blocks = new HashMap<>();
+        Map<Variable, Variable> vars = new HashMap<>();
+        List<BasicBlock> copies = new ArrayList<>();
+        for (BasicBlock original : callee.getBasicBlocks()) {
+            BasicBlock copy = BasicBlock();
+            copy.setName(callee.getName() + "_" + original.getName());
+            for (Instruction instr : original) {
+                Instruction instrCopy = instr.copy();
+                keepHints(instr, instrCopy);
+                if (instr instanceof Assign) {
+                    vars.put(((Assign) instr).getVar(), ((Assign) instrCopy).getVar());
+                }
+                copy.add(instrCopy);
+            }
+            blocks.put(original, copy);
+            copies.add(copy);
+        }
+        Map<Parameter, Operand> arguments = new HashMap<>();
+        for (int i = 0; i < callee.getParameters().size(); i++) {
+            arguments.put(callee.getParameters().get(i), call.getArguments().get(i));
+        }
+        List<VarRef> refs = new ArrayList<>();
+        for (BasicBlock copy : copies) {
+            copy.accept(new Element.DefaultVisitor() {
+                @Override
+                public void visit(VarRef ref) {
+                    super.visit(ref);
+                    refs.add(ref);
+                }
+
+                @Override
+                public void visit(Jump jump) {
+                    super.visit(jump);
+                    jump.setLabel(blocks.get(jump.getLabel()));
+                }
+
+                @Override
+                public void visit(Branch branch) {
+                    super.visit(branch);
+                    branch.setIfTrueLabel(blocks.get(branch.getIfTrueLabel()));
+                    branch.setIfFalseLabel(blocks.get(branch.getIfFalseLabel()));
+                }
+
+                @Override
+                public void visit(PhiNodeChoice choice) {
+                    super.visit(choice);
+                    choice.setLabel(blocks.get(choice.getLabel()));
+                }
+            });
+        }
+        for (VarRef ref : refs) {
+            Variable var = ref.getVariable();
+            if (arguments.containsKey(var)) {
+                ref.replaceBy(arguments.get(var).copy());
+            } else if (vars.containsKey(var)) {
+                ref.setVariable(vars.get(var));
+            }
+        }
+
+        // returns continue after the call
+        PhiNodeChoiceList results = PhiNodeChoiceList();
+        for (BasicBlock copy : copies) {
+            TerminatingInstruction terminator = copy.getTerminatingInstruction().orElse(null);
+            if (terminator instanceof ReturnExpr) {
+                results.add(PhiNodeChoice(copy, ((ReturnExpr) terminator).getReturnValue().copy()));
+                copy.set(copy.indexOf(terminator), Jump(rest));
+            } else if (terminator instanceof ReturnVoid) {
+                copy.set(copy.indexOf(terminator), Jump(rest));
+            }
+        }
+
+        // allocas belong to the entry block, where they are executed once
+        BasicBlock entry = caller.getBasicBlocks().get(0);
+        for (BasicBlock copy : copies) {
+            for (int i = copy.size() - 1; i >= 0; i--) {
+                if (copy.get(i) instanceof Alloca) {
+                    Instruction alloca = copy.get(i);
+                    copy.remove(i);
+                    entry.addFront(alloca);
+                }
+            }
+        }
+
+        // the index moved if allocas were added to the block of the call
+        block.set(block.indexOf(call), Jump(copies.get(0)));
+        caller.getBasicBlocks().addAll(copies);
+        caller.getBasicBlocks().add(rest);
+
+        // the result is used after the call, which is in rest now
+        Map<Variable, List<VarRef>> uses = PromoteAllocas.collectUses(caller);
+        List<VarRef> resultUses = uses.getOrDefault(call.getVar(), List.of());
+        if (!resultUses.isEmpty()) {
+            Operand result;
+            if (results.size() == 1) {
+                result = results.get(0).getValue();
+            } else {
+                TemporaryVar resultVar = TemporaryVar(call.getVar().getName());
+                rest.addFront(PhiNode(resultVar, callee.getReturnType(), results));
+                result = VarRef(resultVar);
+            }
+            for (VarRef ref : resultUses) {
+                ref.replaceBy(result.copy());
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package minillvm.analysis;
+
+import minillvm.ast.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Removes null checks of values which are known to be non-null.
+ *
+ * <p>A forward dataflow analysis computes the variables which are non-null at the end
+ * of each block. A value is non-null if it
+ * <ul>
+ *     <li>is the {@code this} parameter of a method,</li>
+ *     <li>comes from an allocation on the heap or the stack, or from a procedure which
+ *     only returns such values, e.g. a constructor,</li>
+ *     <li>is a bitcast or a phi node of non-null values, or</li>
+ *     <li>was compared to null on every path, and the path continued on the false edge.</li>
+ * </ul>
+ * Since the program is expected in SSA form, facts are never killed. The analysis only
+ * sees through loads after {@link PromoteAllocas} has run.
+ * A branch on {@code x == null} with a non-null x is replaced by a jump to the false
+ * target, and the error block and the compare of the check are removed.
+ */
+public class NullCheckElimination implements Pass {
+
+    @Override
+    public String getName() {
+        return "nullcheck-elim";
+    }
+
+    @Override
+    public void run(Prog prog, PassStatistics statistics) {
+        Set<Proc> nonNullProcs = nonNullProcs(prog);
+        for (Proc proc : prog.getProcedures()) {
+            if (proc.getBasicBlocks().isEmpty()) {
+                continue;
+            }
+            int removed = new Nullness(proc, nonNullProcs).removeChecks();
+            statistics.add(getName(), proc.getName(), "removed", removed);
+        }
+    }
+
+    /**
+     * The procedures which only return non-null pointers.
+     */
+    static Set<Proc> nonNullProcs(Prog prog) {
+        // grows until nothing changes
+        Set<Proc> nonNullProcs = new HashSet<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Proc proc : prog.getProcedures()) {
+                if (!nonNullProcs.contains(proc) && !proc.getBasicBlocks().isEmpty()
+                        && proc.getReturnType() instanceof TypePointer
+                        && new Nullness(proc, nonNullProcs).returnsNonNull()) {
+                    nonNullProcs.add(proc);
+                    changed = true;
+                }
+            }
+        }
+        return nonNullProcs;
+    }
+
+    /**
+     * The nullness analysis of one procedure.
+     */
+    private static class Nullness {
+        private final Proc proc;
+        private final Set<Proc> nonNullProcs;
+        private final ControlFlowGraph cfg;
+        private final Map<Variable, Instruction> definitions = new HashMap<>();
+        /** Non-null variables at the end of each block, null if not analyzed yet. */
+        private final Map<BasicBlock, Set<Variable>> out = new HashMap<>();
+
+        Nullness(Proc proc, Set<Proc> nonNullProcs) {
+            this.proc = proc;
+            this.nonNullProcs = nonNullProcs;
+            this.cfg = new ControlFlowGraph(proc);
+            for (BasicBlock block : proc.getBasicBlocks()) {
+                for (Instruction instr : block) {
+                    if (instr instanceof Assign) {
+                        definitions.put(((Assign) instr).getVar(), instr);
+                    }
+                }
+            }
+            analyze();
+        }
+
+        private void analyze() {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (BasicBlock block : cfg.getReachableBlocks()) {
+                    Set<Variable> facts = entryFacts(block);
+                    if (facts == null) {
+                        continue;
+                    }
+                    for (Instruction instr : block) {
+                        transfer(instr, block, facts);
+                    }
+                    if (!facts.equals(out.get(block))) {
+                        out.put(block, facts);
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        /**
+         * The intersection of the facts on the incoming edges, null if no
+         * predecessor was analyzed yet.
+         */
+        private Set<Variable> entryFacts(BasicBlock block) {
+            if (block == cfg.getEntry()) {
+                Set<Variable> facts = new HashSet<>();
+                for (Parameter p : proc.getParameters()) {
+                    // methods are only called on checked receivers
+                    if (p.getName().equals("this")) {
+                        facts.add(p);
+                    }
+                }
+                return facts;
+            }
+            Set<Variable> facts = null;
+            for (BasicBlock pred : cfg.getPredecessors(block)) {
+                Set<Variable> edge = edgeFacts(pred, block);
+                if (edge == null) {
+                    continue;
+                }
+                if (facts == null) {
+                    facts = new HashSet<>(edge);
+                } else {
+                    facts.retainAll(edge);
+                }
+            }
+            return facts;
+        }
+
+        /**
+         * The facts on the edge from pred to block, null if unknown so far.
+         */
+        private Set<Variable> edgeFacts(BasicBlock pred, BasicBlock block) {
+            Set<Variable> facts = out.get(pred);
+            if (facts == null) {
+                return null;
+            }
+            TerminatingInstruction terminator = pred.getTerminatingInstruction().orElse(null);
+            if (terminator instanceof Branch) {
+                Branch branch = (Branch) terminator;
+                Variable checked = nullComparedValue(branch.getCondition());
+                if (checked != null && branch.getIfFalseLabel() == block
+                        && branch.getIfTrueLabel() != block) {
+                    facts = new HashSet<>(facts);
+                    facts.add(checked);
+                }
+            }
+            return facts;
+        }
+
+        private void transfer(Instruction instr, BasicBlock block, Set<Variable> facts) {
+            if (instr instanceof Alloc || instr instanceof Alloca) {
+                facts.add(((Assign) instr).getVar());
+            } else if (instr instanceof Bitcast) {
+                Bitcast cast = (Bitcast) instr;
+                if (isNonNull(cast.getExpr(), facts)) {
+                    facts.add(cast.getVar());
+                }
+            } else if (instr instanceof Call) {
+                Call call = (Call) instr;
+                if (call.getFunction() instanceof ProcedureRef && nonNullProcs.contains(
+                        ((ProcedureRef) call.getFunction()).getProcedure())) {
+                    facts.add(call.getVar());
+                }
+            } else if (instr instanceof PhiNode) {
+                PhiNode phi = (PhiNode) instr;
+                for (PhiNodeChoice choice : phi.getChoices()) {
+                    Set<Variable> edge = edgeFacts(choice.getLabel(), block);
+                    // edges which are not analyzed yet are optimistically non-null
+                    if (edge != null && !isNonNull(choice.getValue(), edge)) {
+                        return;
+                    }
+                }
+                facts.add(phi.getVar());
+            }
+        }
+
+        private static boolean isNonNull(Operand value, Set<Variable> facts) {
+            return value instanceof VarRef && facts.contains(((VarRef) value).getVariable());
+        }
+
+        /**
+         * The variable x, if the condition is defined as {@code x == null}.
+         */
+        private Variable nullComparedValue(Operand condition) {
+            if (!(condition instanceof VarRef)) {
+                return null;
+            }
+            Instruction def = definitions.get(((VarRef) condition).getVariable());
+            if (!(def instanceof BinaryOperation)) {
+                return null;
+            }
+            BinaryOperation compare = (BinaryOperation) def;
+            if (!(compare.getOperator() instanceof Eq)) {
+                return null;
+            }
+            if (compare.getRight() instanceof Nullpointer && compare.getLeft() instanceof VarRef) {
+                return ((VarRef) compare.getLeft()).getVariable();
+            }
+            if (compare.getLeft() instanceof Nullpointer && compare.getRight() instanceof VarRef) {
+                return ((VarRef) compare.getRight()).getVariable();
+            }
+            return null;
+        }
+
+        boolean returnsNonNull() {
+            for (BasicBlock block : cfg.getReachableBlocks()) {
+                TerminatingInstruction terminator = block.getTerminatingInstruction().orElse(null);
+                if (terminator instanceof ReturnExpr) {
+                    Set<Variable> facts = out.get(block);
+                    if (facts == null
+                            || !isNonNull(((ReturnExpr) terminator).getReturnValue(), facts)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Replaces the branches of redundant checks by jumps.
+         *
+         * @return the number of removed checks
+         */
+        int removeChecks() {
+            int removed = 0;
+            for (BasicBlock block : cfg.getReachableBlocks()) {
+                TerminatingInstruction terminator = block.getTerminatingInstruction().orElse(null);
+                if (!(terminator instanceof Branch)) {
+                    continue;
+                }
+                Branch branch = (Branch) terminator;
+                Variable checked = nullComparedValue(branch.getCondition());
+                if (checked == null || !out.get(block).contains(checked)
+                        || branch.getIfTrueLabel() == branch.getIfFalseLabel()) {
+                    continue;
+                }
+                Transformations.replaceBranch(proc, cfg, branch, false);
+                removed++;
+            }
+            if (removed > 0) {
+                Transformations.removeUnusedInstructions(proc);
+            }
+            return removed;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package minillvm.analysis;
+
+import minillvm.ast.Prog;
+
+/**
+ * A transformation on llvm programs.
+ */
+public interface Pass {
+
+    /**
+     * Name of the pass, used in statistics.
+     */
+    String getName();
+
+    /**
+     * Transforms the program in place and records what was changed.
+     */
+    void run(Prog prog, PassStatistics statistics);
+}
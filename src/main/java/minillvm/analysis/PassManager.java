@@ -0,0 +1,76 @@
+package minillvm.analysis;
+
+import minillvm.ast.Prog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a sequence of passes on a program.
+ */
+public class PassManager {
+    private final List<Pass> passes = new ArrayList<>();
+    private final PassStatistics statistics = new PassStatistics();
+
+    /**
+     * The passes of the given optimization level, from 0 (no passes) to 3.
+     */
+    public static PassManager forLevel(int level) {
+        return forLevel(level, Inliner.DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * The passes of the given optimization level, inlining procedures with
+     * at most the given number of instructions on level 3.
+     */
+    public static PassManager forLevel(int level, int inlineThreshold) {
+        PassManager pm = new PassManager();
+        if (level >= 1) {
+            pm.add(new RemoveComments());
+            pm.add(new PromoteAllocas());
+            pm.add(new DeadCodeElimination());
+        }
+        if (level >= 3) {
+            // before the other passes, so that they see the inlined code
+            pm.add(new Inliner(inlineThreshold));
+            pm.add(new EscapeAnalysis());
+        }
+        if (level >= 2) {
+            pm.add(new NullCheckElimination());
+            pm.add(new BoundsCheckElimination());
+            pm.add(new ConstantPropagation());
+            // removes what the other passes left behind
+            pm.add(new DeadCodeElimination());
+        }
+        if (level >= 1) {
+            // last, the attributes describe the final code
+            pm.add(new AttributeInference());
+        }
+        return pm;
+    }
+
+    /**
+     * Appends a pass.
+     */
+    public PassManager add(Pass pass) {
+        passes.add(pass);
+        return this;
+    }
+
+    /**
+     * Runs all passes in order.
+     */
+    public void run(Prog prog) {
+        for (Pass pass : passes) {
+            pass.run(prog, statistics);
+        }
+    }
+
+    public List<Pass> getPasses() {
+        return passes;
+    }
+
+    public PassStatistics getStatistics() {
+        return statistics;
+    }
+}
@@ -0,0 +1,62 @@
+package minillvm.analysis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counters recorded by passes, per pass, procedure and counter name.
+ */
+public class PassStatistics {
+    private final Map<String, Map<String, Map<String, Integer>>> counters = new TreeMap<>();
+
+    /**
+     * Adds a value to a counter of a procedure.
+     */
+    public void add(String pass, String proc, String counter, int value) {
+        if (value == 0) {
+            return;
+        }
+        counters.computeIfAbsent(pass, p -> new TreeMap<>())
+                .computeIfAbsent(proc, p -> new TreeMap<>())
+                .merge(counter, value, Integer::sum);
+    }
+
+    /**
+     * The value of a counter of a procedure, 0 if nothing was recorded.
+     */
+    public int get(String pass, String proc, String counter) {
+        return counters.getOrDefault(pass, Map.of())
+                .getOrDefault(proc, Map.of())
+                .getOrDefault(counter, 0);
+    }
+
+    /**
+     * The sum of a counter over all procedures.
+     */
+    public int total(String pass, String counter) {
+        int sum = 0;
+        for (Map<String, Integer> procCounters : counters.getOrDefault(pass, Map.of()).values()) {
+            sum += procCounters.getOrDefault(counter, 0);
+        }
+        return sum;
+    }
+
+    /**
+     * One line per pass, procedure and counter.
+     */
+    public List<String> lines() {
+        List<String> result = new ArrayList<>();
+        counters.forEach((pass, procs) ->
+                procs.forEach((proc, procCounters) ->
+                        procCounters.forEach((counter, value) ->
+                                result.add(pass + ": " + proc + ": " + counter + " " + value))));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return String.join("\n", lines());
+    }
+}
@@ -0,0 +1,329 @@
+package minillvm.analysis;
+
+import minillvm.ast.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static minillvm.ast.Ast.*;
+
+/**
+ * Promotes allocas to SSA values (mem2reg).
+ *
+ * <p>An alloca is promotable if its address is only used to load and store whole values.
+ * Phi nodes are placed at the iterated dominance frontier of the stores (Cytron et al.),
+ * then the loads are replaced by the reaching value while walking the dominator tree.
+ * Loads without a reaching store get the default value of the type.
+ */
+public class PromoteAllocas implements Pass {
+
+    @Override
+    public String getName() {
+        return "mem2reg";
+    }
+
+    @Override
+    public void run(Prog prog, PassStatistics statistics) {
+        for (Proc proc : prog.getProcedures()) {
+            if (proc.getBasicBlocks().isEmpty()) {
+                continue;
+            }
+            Promotion promotion = new Promotion(proc);
+            promotion.run();
+            statistics.add(getName(), proc.getName(), "promoted", promotion.promoted.size());
+            statistics.add(getName(), proc.getName(), "phis", promotion.phis.size());
+        }
+    }
+
+    /**
+     * All references to variables in the element, grouped by variable.
+     */
+    static Map<Variable, List<VarRef>> collectUses(Element element) {
+        Map<Variable, List<VarRef>> uses = new HashMap<>();
+        element.accept(new Element.DefaultVisitor() {
+            @Override
+            public void visit(VarRef ref) {
+                super.visit(ref);
+                uses.computeIfAbsent(ref.getVariable(), v -> new ArrayList<>()).add(ref);
+            }
+        });
+        return uses;
+    }
+
+    /**
+     * Promotion of the allocas of one procedure.
+     */
+    private static class Promotion {
+        private final Proc proc;
+        private final ControlFlowGraph cfg;
+        /** The promoted allocas by their variable. */
+        private final Map<TemporaryVar, Alloca> promoted = new LinkedHashMap<>();
+        /** The inserted phi nodes and the alloca they belong to. */
+        private final Map<PhiNode, TemporaryVar> phis = new LinkedHashMap<>();
+        /** The current value of each promoted alloca during renaming. */
+        private final Map<TemporaryVar, Deque<Operand>> values = new HashMap<>();
+        /** The values replacing the removed loads. */
+        private final Map<Variable, Operand> replacements = new HashMap<>();
+        private final List<Bitcast> typedNulls = new ArrayList<>();
+
+        Promotion(Proc proc) {
+            this.proc = proc;
+            this.cfg = new ControlFlowGraph(proc);
+        }
+
+        void run() {
+            Map<Variable, List<VarRef>> uses = collectUses(proc);
+            for (BasicBlock block : proc.getBasicBlocks()) {
+                for (Instruction instr : block) {
+                    if (instr instanceof Alloca && isPromotable((Alloca) instr, uses)) {
+                        Alloca alloca = (Alloca) instr;
+                        promoted.put(alloca.getVar(), alloca);
+                        values.put(alloca.getVar(), new ArrayDeque<>());
+                    }
+                }
+            }
+            if (promoted.isEmpty()) {
+                return;
+            }
+            placePhis();
+            rename();
+            removeUnreachableAccesses();
+            for (Map.Entry<PhiNode, TemporaryVar> e : phis.entrySet()) {
+                // unreachable predecessors still need a choice
+                BasicBlock block = (BasicBlock) e.getKey().getParent();
+                for (BasicBlock pred : cfg.getPredecessors(block)) {
+                    if (!cfg.isReachable(pred)) {
+                        Operand value = defaultValue(promoted.get(e.getValue()).getType());
+                        e.getKey().getChoices().add(PhiNodeChoice(pred, value.copy()));
+                    }
+                }
+            }
+            for (Alloca alloca : promoted.values()) {
+                BasicBlock block = (BasicBlock) alloca.getParent();
+                block.remove(block.indexOf(alloca));
+            }
+            for (Map.Entry<Variable, List<VarRef>> use : collectUses(proc).entrySet()) {
+                Operand replacement = replacements.get(use.getKey());
+                if (replacement != null) {
+                    for (VarRef ref : use.getValue()) {
+                        ref.replaceBy(replacement.copy());
+                    }
+                }
+            }
+        }
+
+        /**
+         * The address of the alloca must only be used as the address of loads and stores.
+         */
+        private boolean isPromotable(Alloca alloca, Map<Variable, List<VarRef>> uses) {
+            Type type = alloca.getType();
+            if (!(type instanceof TypeInt || type instanceof TypeBool
+                    || type instanceof TypePointer)) {
+                return false;
+            }
+            for (VarRef ref : uses.getOrDefault(alloca.getVar(), List.of())) {
+                Element parent = ref.getParent();
+                boolean isLoad = parent instanceof Load && ((Load) parent).getAddress() == ref;
+                boolean isStore = parent instanceof Store && ((Store) parent).getAddress() == ref;
+                if (!isLoad && !isStore) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private TemporaryVar promotedAddress(Operand address) {
+            if (address instanceof VarRef) {
+                Variable v = ((VarRef) address).getVariable();
+                if (promoted.containsKey(v)) {
+                    return (TemporaryVar) v;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Inserts empty phi nodes at the iterated dominance frontier of the stores.
+         */
+        private void placePhis() {
+            Map<TemporaryVar, List<BasicBlock>> storeBlocks = new LinkedHashMap<>();
+            for (BasicBlock block : cfg.getReachableBlocks()) {
+                for (Instruction instr : block) {
+                    if (instr instanceof Store) {
+                        TemporaryVar var = promotedAddress(((Store) instr).getAddress());
+                        if (var != null) {
+                            storeBlocks.computeIfAbsent(var, v -> new ArrayList<>()).add(block);
+                        }
+                    }
+                }
+            }
+            for (Map.Entry<TemporaryVar, List<BasicBlock>> e : storeBlocks.entrySet()) {
+                TemporaryVar var = e.getKey();
+                Deque<BasicBlock> worklist = new ArrayDeque<>(e.getValue());
+                Set<BasicBlock> hasPhi = new HashSet<>();
+                while (!worklist.isEmpty()) {
+                    BasicBlock block = worklist.poll();
+                    for (BasicBlock frontier : cfg.getDominanceFrontier(block)) {
+                        if (hasPhi.add(frontier)) {
+                            PhiNode phi = PhiNode(TemporaryVar(var.getName()),
+                                    promoted.get(var).getType(), PhiNodeChoiceList());
+                            frontier.addFront(phi);
+                            phis.put(phi, var);
+                            worklist.add(frontier);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Walks the dominator tree, replacing loads by the current value of the alloca
+         * and filling in the phi choices of the successors.
+         */
+        private void rename() {
+            // iterative, the dominator tree can be as deep as the procedure is long
+            Deque<BasicBlock> blocks = new ArrayDeque<>();
+            Deque<List<TemporaryVar>> definitions = new ArrayDeque<>();
+            Deque<Integer> nextChild = new ArrayDeque<>();
+            blocks.push(cfg.getEntry());
+            definitions.push(renameBlock(cfg.getEntry()));
+            nextChild.push(0);
+            while (!blocks.isEmpty()) {
+                BasicBlock block = blocks.peek();
+                List<BasicBlock> children = cfg.getDominatorTreeChildren(block);
+                int next = nextChild.pop();
+                if (next < children.size()) {
+                    nextChild.push(next + 1);
+                    BasicBlock child = children.get(next);
+                    blocks.push(child);
+                    definitions.push(renameBlock(child));
+                    nextChild.push(0);
+                } else {
+                    blocks.pop();
+                    for (TemporaryVar var : definitions.pop()) {
+                        values.get(var).pop();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Renames the accesses in one block.
+         *
+         * @return the allocas which got a new value in the block
+         */
+        private List<TemporaryVar> renameBlock(BasicBlock block) {
+            List<TemporaryVar> defined = new ArrayList<>();
+            for (int i = 0; i < block.size(); i++) {
+                Instruction instr = block.get(i);
+                if (instr instanceof PhiNode && phis.containsKey(instr)) {
+                    TemporaryVar var = phis.get(instr);
+                    values.get(var).push(VarRef(((PhiNode) instr).getVar()));
+                    defined.add(var);
+                } else if (instr instanceof Load) {
+                    Load load = (Load) instr;
+                    TemporaryVar var = promotedAddress(load.getAddress());
+                    if (var != null) {
+                        replacements.put(load.getVar(), currentValue(var));
+                        block.remove(i--);
+                    }
+                } else if (instr instanceof Store) {
+                    Store store = (Store) instr;
+                    TemporaryVar var = promotedAddress(store.getAddress());
+                    if (var != null) {
+                        values.get(var).push(resolve(store.getValue(), var));
+                        defined.add(var);
+                        block.remove(i--);
+                    }
+                }
+            }
+            for (BasicBlock succ : cfg.getSuccessors(block)) {
+                for (PhiNode phi : succ.getPhiNodes()) {
+                    TemporaryVar var = phis.get(phi);
+                    if (var != null) {
+                        phi.getChoices().add(PhiNodeChoice(block, currentValue(var).copy()));
+                    }
+                }
+            }
+            return defined;
+        }
+
+        private Operand currentValue(TemporaryVar var) {
+            Deque<Operand> stack = values.get(var);
+            return stack.isEmpty() ? defaultValue(promoted.get(var).getType()) : stack.peek();
+        }
+
+        /**
+         * The stored value, with removed loads replaced and null typed like the alloca.
+         */
+        private Operand resolve(Operand value, TemporaryVar var) {
+            if (value instanceof VarRef) {
+                Operand replacement = replacements.get(((VarRef) value).getVariable());
+                if (replacement != null) {
+                    return replacement;
+                }
+            } else if (value instanceof Nullpointer) {
+                return defaultValue(promoted.get(var).getType());
+            }
+            return value.copy();
+        }
+
+        private Operand defaultValue(Type type) {
+            if (type instanceof TypeBool) {
+                return ConstBool(false);
+            } else if (type instanceof TypeInt) {
+                return ConstInt(0);
+            }
+            return typedNull(type);
+        }
+
+        /**
+         * A null pointer of the given type, a plain null constant would lose its type
+         * when it replaces a load which is used as an address.
+         */
+        private Operand typedNull(Type type) {
+            for (Bitcast cast : typedNulls) {
+                if (cast.getType().equalsType(type)) {
+                    return VarRef(cast.getVar());
+                }
+            }
+            Bitcast cast = Bitcast(TemporaryVar("null"), type, Nullpointer());
+            cfg.getEntry().addFront(cast);
+            typedNulls.add(cast);
+            return VarRef(cast.getVar());
+        }
+
+        /**
+         * Loads and stores in unreachable blocks are not visited by the renaming,
+         * the loads get the default value.
+         */
+        private void removeUnreachableAccesses() {
+            for (BasicBlock block : proc.getBasicBlocks()) {
+                if (cfg.isReachable(block)) {
+                    continue;
+                }
+                for (int i = 0; i < block.size(); i++) {
+                    Instruction instr = block.get(i);
+                    if (instr instanceof Load) {
+                        TemporaryVar var = promotedAddress(((Load) instr).getAddress());
+                        if (var != null) {
+                            replacements.put(((Load) instr).getVar(),
+                                    defaultValue(promoted.get(var).getType()));
+                            block.remove(i--);
+                        }
+                    } else if (instr instanceof Store
+                            && promotedAddress(((Store) instr).getAddress()) != null) {
+                        block.remove(i--);
+                    }
+                }
+            }
+        }
+    }
+}
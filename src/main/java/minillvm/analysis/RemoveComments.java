@@ -0,0 +1,30 @@
+package minillvm.analysis;
+
+import minillvm.ast.*;
+
+/**
+ * Removes comment instructions, they only make the printed module larger.
+ */
+public class RemoveComments implements Pass {
+
+    @Override
+    public String getName() {
+        return "remove-comments";
+    }
+
+    @Override
+    public void run(Prog prog, PassStatistics statistics) {
+        for (Proc proc : prog.getProcedures()) {
+            int removed = 0;
+            for (BasicBlock block : proc.getBasicBlocks()) {
+                for (int i = block.size() - 1; i >= 0; i--) {
+                    if (block.get(i) instanceof CommentInstr) {
+                        block.remove(i);
+                        removed++;
+                    }
+                }
+            }
+            statistics.add(getName(), proc.getName(), "removed", removed);
+        }
+    }
+}
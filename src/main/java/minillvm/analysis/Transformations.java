@@ -0,0 +1,119 @@
+package minillvm.analysis;
+
+import minillvm.ast.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static minillvm.ast.Ast.*;
+
+/**
+ * Small rewrites shared by the passes.
+ */
+public class Transformations {
+
+    /**
+     * Replaces a branch whose outcome is known by a jump to the taken target.
+     * The phi choices of the other target are removed, and the other target itself,
+     * if it only reports an error and has no other predecessor in the given graph.
+     */
+    public static void replaceBranch(Proc proc, ControlFlowGraph cfg, Branch branch,
+                                     boolean taken) {
+        BasicBlock block = (BasicBlock) branch.getParent();
+        BasicBlock target = taken ? branch.getIfTrueLabel() : branch.getIfFalseLabel();
+        BasicBlock other = taken ? branch.getIfFalseLabel() : branch.getIfTrueLabel();
+        block.set(block.indexOf(branch), Jump(target));
+        if (other == target) {
+            return;
+        }
+        removeChoices(other, block);
+        if (isErrorBlock(other) && cfg.getPredecessors(other).size() == 1) {
+            proc.getBasicBlocks().remove(proc.getBasicBlocks().indexOf(other));
+        }
+    }
+
+    /**
+     * Removes the phi choices for an edge which no longer exists.
+     */
+    public static void removeChoices(BasicBlock block, BasicBlock pred) {
+        for (PhiNode phi : block.getPhiNodes()) {
+            PhiNodeChoiceList choices = phi.getChoices();
+            for (int i = 0; i < choices.size(); i++) {
+                if (choices.get(i).getLabel() == pred) {
+                    choices.remove(i);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether the block does nothing but halting with an error.
+     */
+    public static boolean isErrorBlock(BasicBlock block) {
+        boolean halts = false;
+        for (Instruction instr : block) {
+            if (instr instanceof HaltWithError) {
+                halts = true;
+            } else if (!(instr instanceof CommentInstr)) {
+                return false;
+            }
+        }
+        return halts;
+    }
+
+    /**
+     * Removes instructions without side effects whose result is not used,
+     * until there are none left.
+     *
+     * @return the number of removed instructions
+     */
+    public static int removeUnusedInstructions(Proc proc) {
+        Map<Variable, Integer> useCounts = new HashMap<>();
+        for (Map.Entry<Variable, List<VarRef>> e : PromoteAllocas.collectUses(proc).entrySet()) {
+            useCounts.put(e.getKey(), e.getValue().size());
+        }
+        int removed = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : proc.getBasicBlocks()) {
+                for (int i = block.size() - 1; i >= 0; i--) {
+                    Instruction instr = block.get(i);
+                    if (!isPure(instr)
+                            || useCounts.getOrDefault(((Assign) instr).getVar(), 0) > 0) {
+                        continue;
+                    }
+                    // the operands lose a use
+                    instr.accept(new Element.DefaultVisitor() {
+                        @Override
+                        public void visit(VarRef ref) {
+                            super.visit(ref);
+                            useCounts.merge(ref.getVariable(), -1, Integer::sum);
+                        }
+                    });
+                    block.remove(i);
+                    removed++;
+                    changed = true;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Instructions which only compute their result. Loads are included, all loads
+     * in translated programs read valid memory.
+     */
+    private static boolean isPure(Instruction instr) {
+        if (instr instanceof BinaryOperation) {
+            // division by zero is undefined behavior, dropping it is allowed
+            return true;
+        }
+        return instr instanceof Bitcast
+                || instr instanceof GetElementPtr
+                || instr instanceof Load
+                || instr instanceof PhiNode;
+    }
+}
@@ -5,7 +5,12 @@ import minillvm.analysis.ExpectedType;
 import minillvm.analysis.Typechecker;
 import minillvm.ast.*;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -15,16 +20,49 @@ import java.util.Map;
  */
 public class PrettyPrinter implements
         Element.MatcherVoid {
-
-    private final StringBuilder sb;
+    /** Size of the chunks of the arena allocator. */
+    private static final int ARENA_CHUNK_SIZE = 1 << 20;
+    /** Larger allocations get their own memory. */
+    private static final int ARENA_LARGE_ALLOCATION = 1 << 16;
+    /** Size of the buffer for the output of print. */
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    private final Appendable out;
+    private final boolean recordPositions;
     private boolean includeType;
-    private final Map<String, String> stringConstantNames = new HashMap<>();
+    /** Error code of each message format, see {@link #errorFormat(HaltWithError)}. */
+    private final Map<String, Integer> errorCodes = new LinkedHashMap<>();
+    /** Metadata number of each pair of branch weights, see {@link #case_Branch(Branch)}. */
+    private final Map<String, Integer> branchWeights = new LinkedHashMap<>();
     private final Map<Element, SourcePosition> sourcePositions = new HashMap<>();
     private int currentLine = 1;
     private int currentColumn = 0;
 
     public PrettyPrinter(StringBuilder sb) {
-        this.sb = sb;
+        this.out = sb;
+        this.recordPositions = true;
+    }
+
+    /**
+     * Printer writing directly to the given writer.
+     * Source positions are not recorded, so memory use does not grow with the output.
+     */
+    public PrettyPrinter(Writer out) {
+        this.out = out;
+        this.recordPositions = false;
+    }
+
+    /**
+     * Prints a program to the given writer without building it in memory first.
+     * The writer should be buffered.
+     */
+    public static void printTo(Prog prog, Writer out) throws IOException {
+        try {
+            prog.match(new PrettyPrinter(out));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.flush();
     }
 
     /**
@@ -102,8 +140,10 @@ public class PrettyPrinter implements
         int startLine = currentLine;
         int startColumn = currentColumn;
         e.match(this);
-        sourcePositions.put(e, new SourcePosition("",
-                startLine, startColumn, currentLine, currentColumn));
+        if (recordPositions) {
+            sourcePositions.put(e, new SourcePosition("",
+                    startLine, startColumn, currentLine, currentColumn));
+        }
     }
 
     private Type tryCalculateType(Operand variable) {
@@ -125,20 +165,28 @@ public class PrettyPrinter implements
     private void append(Object o) {
         String s = o.toString();
         currentColumn += s.length();
-        sb.append(o);
+        write(s);
     }
 
     private void appendLine() {
-        sb.append("\n");
+        write("\n");
         currentLine++;
         currentColumn = 0;
     }
 
     private void appendLine(Object o) {
-        sb.append(o);
+        write(o.toString());
         appendLine();
     }
 
+    private void write(String s) {
+        try {
+            out.append(s);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     @Override
     public void case_PhiNodeChoice(PhiNodeChoice choice) {
         append("[ ");
@@ -177,7 +225,8 @@ public class PrettyPrinter implements
 
     @Override
     public void case_Proc(Proc proc) {
-        append("define " + proc.getReturnType() + " @" + getName(proc) + "(");
+        append("define " + withAttributes(proc.getReturnAttributes())
+                + proc.getReturnType() + " @" + getName(proc) + "(");
         boolean first = true;
         for (Parameter p : proc.getParameters()) {
             if (!first) {
@@ -185,10 +234,15 @@ public class PrettyPrinter implements
             }
             append(p.getType());
             append(" ");
+            append(withAttributes(p.getAttributes()));
             append(p);
             first = false;
         }
-        appendLine(") {");
+        append(")");
+        if (proc.getAttributes() != null && !proc.getAttributes().isEmpty()) {
+            append(" " + proc.getAttributes());
+        }
+        appendLine(" {");
         for (BasicBlock b : proc.getBasicBlocks()) {
             print(b);
         }
@@ -197,6 +251,13 @@ public class PrettyPrinter implements
         appendLine();
     }
 
+    /**
+     * The attributes followed by a space, or nothing if there are none.
+     */
+    private static String withAttributes(String attributes) {
+        return attributes == null || attributes.isEmpty() ? "" : attributes + " ";
+    }
+
     @Override
     public void case_Global(Global g) {
         append("@" + getName(g) + " = ");
@@ -246,29 +307,105 @@ public class PrettyPrinter implements
         }
 
         addBuiltins();
+        if (!errorCodes.isEmpty()) {
+            addTrap();
+        }
+        List<String> destructors = new ArrayList<>();
+        destructors.add(".flush");
+        if (p.getArenaAllocation()) {
+            addArenaAllocator();
+            destructors.add(".arena_stats");
+        }
+        addDestructors(destructors);
+        printBranchWeights();
     }
 
+    private void printBranchWeights() {
+        if (branchWeights.isEmpty()) {
+            return;
+        }
+        appendLine();
+        for (Map.Entry<String, Integer> weights : branchWeights.entrySet()) {
+            appendLine("!" + weights.getValue() + " = !{!\"branch_weights\", "
+                    + weights.getKey() + "}");
+        }
+    }
+
+    /**
+     * Prints the formats of the error messages and the table, which maps error codes
+     * to formats.
+     */
     private void printStringConstants(Prog p) {
         p.accept(new Element.DefaultVisitor() {
-            int messageNr = 0;
-
             public void visit(HaltWithError e) {
                 super.visit(e);
-                if (stringConstantNames.containsKey(e.getMsg())) {
-                    // already has constant for this string
+                String format = errorFormat(e);
+                if (errorCodes.containsKey(format)) {
+                    // already has constant for this format
                     return;
                 }
-                // print constant for string
-                messageNr++;
-                String constantName = ".print_message_" + messageNr;
-                byte[] bytes = e.getMsg().getBytes();
-
-                appendLine("@" + constantName + " = private unnamed_addr constant ["
-                        + (bytes.length + 2)
-                        + " x i8] c" + escapeString(e.getMsg() + "\n\0") + ", align 1");
-                stringConstantNames.put(e.getMsg(), constantName);
+                // print constant for format
+                int code = errorCodes.size();
+                appendLine("@.error_format_" + code + " = private unnamed_addr constant "
+                        + errorFormatType(format) + " c" + escapeString(format + "\n\0")
+                        + ", align 1");
+                errorCodes.put(format, code);
+            }
+        });
+        if (errorCodes.isEmpty()) {
+            return;
+        }
+        StringBuilder table = new StringBuilder();
+        errorCodes.forEach((format, code) -> {
+            if (table.length() > 0) {
+                table.append(", ");
             }
+            String type = errorFormatType(format);
+            table.append("i8* getelementptr inbounds (" + type + ", " + type
+                    + "* @.error_format_" + code + ", i32 0, i32 0)");
         });
+        appendLine("@.error_formats = private unnamed_addr constant ["
+                + errorCodes.size() + " x i8*] [" + table + "]");
+    }
+
+    /**
+     * The message with placeholders for the line and column, so that all errors
+     * of one kind share a format.
+     */
+    private static String errorFormat(HaltWithError e) {
+        String format = e.getMsg().replace("%", "%%");
+        if (e.getLine() != 0) {
+            format += " in line %d";
+            if (e.getColumn() != 0) {
+                format += ":%d.";
+            }
+        }
+        return format;
+    }
+
+    private static String errorFormatType(String format) {
+        return "[" + (format.getBytes().length + 2) + " x i8]";
+    }
+
+    /**
+     * All errors halt through this procedure, so that the blocks reporting them
+     * only need a call. It is cold, so the error paths are kept away from the hot code.
+     */
+    private void addTrap() {
+        String table = "[" + errorCodes.size() + " x i8*]";
+        appendLine();
+        appendLine("define internal void @.trap(i32 %code, i32 %line, i32 %column) "
+                + "noinline noreturn cold {");
+        appendLine("entry:");
+        appendLine("    ; the output so far comes before the error message");
+        appendLine("    call void @.flush()");
+        appendLine("    %formatAddr = getelementptr inbounds " + table + ", " + table
+                + "* @.error_formats, i32 0, i32 %code");
+        appendLine("    %format = load i8*, i8** %formatAddr");
+        appendLine("    %temp = call i32 (i8*, ...) @printf(i8* %format, i32 %line, i32 %column)");
+        appendLine("    call void @exit(i32 222)");
+        appendLine("    unreachable");
+        appendLine("}");
     }
 
     /**
@@ -276,17 +413,204 @@ public class PrettyPrinter implements
      */
     private void addBuiltins() {
         appendLine();
-        appendLine("declare noalias i8* @malloc(i32)");
+        appendLine("declare noalias i8* @calloc(i32, i32)");
         appendLine();
         appendLine("declare i32 @printf(i8*, ...)");
         appendLine();
         appendLine("declare void @exit(i32)");
         appendLine();
-        appendLine("@.printstr = private unnamed_addr constant [4 x i8] c\"%d\\0A\\00\", align 1");
+        addBufferedOutput();
+    }
+
+    /**
+     * Output of print goes to a buffer, which is written with one system call when it is
+     * full, at exit and before halting with an error. The numbers are formatted backwards
+     * into a small buffer on the stack, since printf is slow for millions of numbers.
+     */
+    private void addBufferedOutput() {
+        String buffer = "[" + OUTPUT_BUFFER_SIZE + " x i8]";
+        appendLine("@.output = internal global " + buffer + " zeroinitializer");
+        appendLine("@.output_length = internal global i32 0");
+        appendLine();
+        appendLine("declare i64 @write(i32, i8*, i64)");
+        appendLine();
+        appendLine("declare void @llvm.memcpy.p0i8.p0i8.i32(i8*, i8*, i32, i1)");
+        appendLine();
+        appendLine("define internal void @.flush() {");
+        appendLine("entry:");
+        appendLine("    %length = load i32, i32* @.output_length");
+        appendLine("    store i32 0, i32* @.output_length");
+        appendLine("    br label %loop");
+        appendLine("loop:");
+        appendLine("    %written = phi i32 [0, %entry], [%written1, %partial]");
+        appendLine("    %done = icmp sge i32 %written, %length");
+        appendLine("    br i1 %done, label %end, label %write");
+        appendLine("write:");
+        appendLine("    %start = getelementptr inbounds " + buffer + ", " + buffer
+                + "* @.output, i32 0, i32 %written");
+        appendLine("    %remaining = sub i32 %length, %written");
+        appendLine("    %remaining64 = zext i32 %remaining to i64");
+        appendLine("    %result = call i64 @write(i32 1, i8* %start, i64 %remaining64)");
+        appendLine("    %failed = icmp sle i64 %result, 0");
+        appendLine("    br i1 %failed, label %end, label %partial");
+        appendLine("partial:");
+        appendLine("    %result32 = trunc i64 %result to i32");
+        appendLine("    %written1 = add i32 %written, %result32");
+        appendLine("    br label %loop");
+        appendLine("end:");
+        appendLine("    ret void");
+        appendLine("}");
+        appendLine();
         appendLine("define void @print(i32 %i) {");
-        appendLine("    %temp = call i32 (i8*, ...) "
-                + "@printf(i8* getelementptr inbounds "
-                + "([4 x i8], [4 x i8]* @.printstr, i32 0, i32 0), i32 %i)");
+        appendLine("entry:");
+        appendLine("    ; at most 11 characters and the newline");
+        appendLine("    %digits = alloca [12 x i8]");
+        appendLine("    %length = load i32, i32* @.output_length");
+        appendLine("    %full = icmp sgt i32 %length, " + (OUTPUT_BUFFER_SIZE - 12));
+        appendLine("    br i1 %full, label %flush, label %format");
+        appendLine("flush:");
+        appendLine("    call void @.flush()");
+        appendLine("    br label %format");
+        appendLine("format:");
+        appendLine("    ; 64 bit, so that the minimal int can be negated");
+        appendLine("    %value = sext i32 %i to i64");
+        appendLine("    %negative = icmp slt i64 %value, 0");
+        appendLine("    %negated = sub i64 0, %value");
+        appendLine("    %abs = select i1 %negative, i64 %negated, i64 %value");
+        appendLine("    %newline = getelementptr inbounds [12 x i8], [12 x i8]* %digits, "
+                + "i32 0, i32 11");
+        appendLine("    store i8 10, i8* %newline");
+        appendLine("    br label %digit");
+        appendLine("digit:");
+        appendLine("    %rest = phi i64 [%abs, %format], [%rest1, %digit]");
+        appendLine("    %pos = phi i32 [11, %format], [%pos1, %digit]");
+        appendLine("    %d = urem i64 %rest, 10");
+        appendLine("    %rest1 = udiv i64 %rest, 10");
+        appendLine("    %d8 = trunc i64 %d to i8");
+        appendLine("    %char = add i8 %d8, 48");
+        appendLine("    %pos1 = sub i32 %pos, 1");
+        appendLine("    %digitAddr = getelementptr inbounds [12 x i8], [12 x i8]* %digits, "
+                + "i32 0, i32 %pos1");
+        appendLine("    store i8 %char, i8* %digitAddr");
+        appendLine("    %more = icmp ne i64 %rest1, 0");
+        appendLine("    br i1 %more, label %digit, label %copy");
+        appendLine("copy:");
+        appendLine("    ; the sign is written in any case, but only copied for negative numbers");
+        appendLine("    %minusPos = sub i32 %pos1, 1");
+        appendLine("    %minusAddr = getelementptr inbounds [12 x i8], [12 x i8]* %digits, "
+                + "i32 0, i32 %minusPos");
+        appendLine("    store i8 45, i8* %minusAddr");
+        appendLine("    %first = select i1 %negative, i32 %minusPos, i32 %pos1");
+        appendLine("    %count = sub i32 12, %first");
+        appendLine("    %from = getelementptr inbounds [12 x i8], [12 x i8]* %digits, "
+                + "i32 0, i32 %first");
+        appendLine("    %length1 = load i32, i32* @.output_length");
+        appendLine("    %to = getelementptr inbounds " + buffer + ", " + buffer
+                + "* @.output, i32 0, i32 %length1");
+        appendLine("    call void @llvm.memcpy.p0i8.p0i8.i32(i8* %to, i8* %from, "
+                + "i32 %count, i1 false)");
+        appendLine("    %length2 = add i32 %length1, %count");
+        appendLine("    store i32 %length2, i32* @.output_length");
+        appendLine("    ret void");
+        appendLine("}");
+    }
+
+    /**
+     * Procedures which run at exit, when main returns or exit is called.
+     */
+    private void addDestructors(List<String> procs) {
+        String entryType = "{ i32, void ()*, i8* }";
+        StringBuilder entries = new StringBuilder();
+        for (String proc : procs) {
+            if (entries.length() > 0) {
+                entries.append(", ");
+            }
+            entries.append(entryType + " { i32 65535, void ()* @" + proc + ", i8* null }");
+        }
+        appendLine();
+        appendLine("@llvm.global_dtors = appending global [" + procs.size() + " x " + entryType
+                + "] [" + entries + "]");
+    }
+
+    /**
+     * The allocator used with {@link Prog#getArenaAllocation()}. Memory is cut from chunks
+     * of zeroed memory, larger allocations get their own memory. Since nothing is freed,
+     * a pointer and the number of bytes left in the current chunk are enough.
+     * If the environment variable NQJ_ARENA_STATS is set, statistics are printed to stderr
+     * by the destructor {@code .arena_stats}.
+     */
+    private void addArenaAllocator() {
+        appendLine();
+        appendLine("@.arena_next = internal global i8* null");
+        appendLine("@.arena_left = internal global i32 0");
+        appendLine("@.arena_allocations = internal global i32 0");
+        appendLine("@.arena_bytes = internal global i64 0");
+        appendLine("@.arena_chunks = internal global i32 0");
+        appendLine();
+        appendLine("define internal i8* @.arena_alloc(i32 %size) {");
+        appendLine("entry:");
+        appendLine("    %allocations = load i32, i32* @.arena_allocations");
+        appendLine("    %allocations1 = add i32 %allocations, 1");
+        appendLine("    store i32 %allocations1, i32* @.arena_allocations");
+        appendLine("    %size64 = sext i32 %size to i64");
+        appendLine("    %bytes = load i64, i64* @.arena_bytes");
+        appendLine("    %bytes1 = add i64 %bytes, %size64");
+        appendLine("    store i64 %bytes1, i64* @.arena_bytes");
+        appendLine("    ; 8 byte alignment for pointer fields");
+        appendLine("    %size7 = add i32 %size, 7");
+        appendLine("    %aligned = and i32 %size7, -8");
+        appendLine("    %left = load i32, i32* @.arena_left");
+        appendLine("    %fits = icmp ule i32 %aligned, %left");
+        appendLine("    br i1 %fits, label %bump, label %refill");
+        appendLine("refill:");
+        appendLine("    %large = icmp ugt i32 %aligned, " + ARENA_LARGE_ALLOCATION);
+        appendLine("    br i1 %large, label %own, label %chunk");
+        appendLine("own:");
+        appendLine("    %memory = call i8* @calloc(i32 1, i32 %size)");
+        appendLine("    ret i8* %memory");
+        appendLine("chunk:");
+        appendLine("    %newChunk = call i8* @calloc(i32 1, i32 " + ARENA_CHUNK_SIZE + ")");
+        appendLine("    store i8* %newChunk, i8** @.arena_next");
+        appendLine("    store i32 " + ARENA_CHUNK_SIZE + ", i32* @.arena_left");
+        appendLine("    %chunks = load i32, i32* @.arena_chunks");
+        appendLine("    %chunks1 = add i32 %chunks, 1");
+        appendLine("    store i32 %chunks1, i32* @.arena_chunks");
+        appendLine("    br label %bump");
+        appendLine("bump:");
+        appendLine("    %next = load i8*, i8** @.arena_next");
+        appendLine("    %available = load i32, i32* @.arena_left");
+        appendLine("    %next1 = getelementptr inbounds i8, i8* %next, i32 %aligned");
+        appendLine("    store i8* %next1, i8** @.arena_next");
+        appendLine("    %available1 = sub i32 %available, %aligned");
+        appendLine("    store i32 %available1, i32* @.arena_left");
+        appendLine("    ret i8* %next");
+        appendLine("}");
+        appendLine();
+        appendLine("declare i8* @getenv(i8*)");
+        appendLine();
+        appendLine("declare i32 @dprintf(i32, i8*, ...)");
+        appendLine();
+        appendLine("@.arena_stats_env = private unnamed_addr constant [16 x i8] "
+                + "c\"NQJ_ARENA_STATS\\00\"");
+        appendLine("@.arena_stats_format = private unnamed_addr constant [46 x i8] "
+                + "c\"arena: %d allocations, %lld bytes, %d chunks\\0A\\00\"");
+        appendLine();
+        appendLine("define internal void @.arena_stats() {");
+        appendLine("entry:");
+        appendLine("    %env = call i8* @getenv(i8* getelementptr inbounds "
+                + "([16 x i8], [16 x i8]* @.arena_stats_env, i32 0, i32 0))");
+        appendLine("    %isSet = icmp ne i8* %env, null");
+        appendLine("    br i1 %isSet, label %print, label %done");
+        appendLine("print:");
+        appendLine("    %allocations = load i32, i32* @.arena_allocations");
+        appendLine("    %bytes = load i64, i64* @.arena_bytes");
+        appendLine("    %chunks = load i32, i32* @.arena_chunks");
+        appendLine("    %temp = call i32 (i32, i8*, ...) @dprintf(i32 2, "
+                + "i8* getelementptr inbounds "
+                + "([46 x i8], [46 x i8]* @.arena_stats_format, i32 0, i32 0), "
+                + "i32 %allocations, i64 %bytes, i32 %chunks)");
+        appendLine("    br label %done");
+        appendLine("done:");
         appendLine("    ret void");
         appendLine("}");
     }
@@ -400,6 +724,12 @@ public class PrettyPrinter implements
         printWithType(s.getCondition());
         append(", label %" + getName(s.getIfTrueLabel()));
         append(", label %" + getName(s.getIfFalseLabel()));
+        if (s.getTrueWeight() != 0 || s.getFalseWeight() != 0) {
+            // branches with the same weights share their metadata node
+            String weights = "i32 " + s.getTrueWeight() + ", i32 " + s.getFalseWeight();
+            int node = branchWeights.computeIfAbsent(weights, w -> branchWeights.size());
+            append(", !prof !" + node);
+        }
     }
 
     @Override
@@ -441,7 +771,8 @@ public class PrettyPrinter implements
         if (t instanceof TypePointer) {
             t = ((TypePointer) t).getTo();
         }
-        append(s.getVar() + " = getelementptr " + t + ", ");
+        append(s.getVar() + " = getelementptr " + (s.getInbounds() ? "inbounds " : "")
+                + t + ", ");
         // TODO type
         printWithType(s.getBaseAddress());
         for (Operand ind : s.getIndices()) {
@@ -466,24 +797,32 @@ public class PrettyPrinter implements
 
     @Override
     public void case_HaltWithError(HaltWithError s) {
-        appendLine("; ERROR: " + s.getMsg()
-                .replaceAll("[\r\n]", " | ") + "");
-        appendLine("    call i32 (i8*, ...) @printf(i8* getelementptr inbounds (["
-                + (s.getMsg().getBytes().length + 2) + " x i8], ["
-                + (s.getMsg().getBytes().length + 2) + " x i8]* @"
-                + stringConstantNames.get(s.getMsg()) + ", i32 0, i32 0))");
-
-        appendLine("    call void @exit(i32 222)");
+        String message = String.format(errorFormat(s), s.getLine(), s.getColumn());
+        appendLine("; ERROR: " + message.replaceAll("[\r\n]", " | "));
+        appendLine("    call void @.trap(i32 " + errorCodes.get(errorFormat(s))
+                + ", i32 " + s.getLine() + ", i32 " + s.getColumn() + ")");
         appendLine("    unreachable");
     }
 
     @Override
     public void case_Alloc(Alloc s) {
-        append(s.getVar() + " = call i8* @malloc(");
+        // zeroed memory, so that fields and array elements need no initialization
+        if (usesArena(s)) {
+            append(s.getVar() + " = call i8* @.arena_alloc(");
+        } else {
+            append(s.getVar() + " = call i8* @calloc(i32 1, ");
+        }
         printWithType(s.getSizeInBytes());
         append(")");
     }
 
+    private static boolean usesArena(Element e) {
+        while (e != null && !(e instanceof Prog)) {
+            e = e.getParent();
+        }
+        return e != null && ((Prog) e).getArenaAllocation();
+    }
+
     @Override
     public void case_TypeNullpointer(TypeNullpointer typeNullpointer) {
         // should never be printed
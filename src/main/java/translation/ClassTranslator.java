@@ -25,6 +25,15 @@ public class ClassTranslator {
     private final Map<TypeStruct, NQJClassDecl> classStructs = new HashMap<>();
     final Map<NQJClassDecl, List<Proc>> classMethods = new HashMap<>();
 
+    // for dynamic dispatch
+    static final String VTABLE_FIELD = ".vtable";
+    private final Map<NQJClassDecl, TypeStruct> vtableStructs = new HashMap<>();
+    private final Map<NQJClassDecl, Global> vtables = new HashMap<>();
+    private final Map<NQJClassDecl, List<String>> vtableSlots = new HashMap<>();
+    private final Map<NQJClassDecl, List<NQJClassDecl>> directSubclasses = new HashMap<>();
+    private int directMethodCalls = 0;
+    private int virtualMethodCalls = 0;
+
     //
     final Set<Proc> noReturnProcs = new HashSet<>();
 
@@ -53,6 +62,7 @@ public class ClassTranslator {
             examineInheritance(decl, getStructOf(decl));
         }
 
+        initVtables(classes);
         initConstructors(classes);
     }
 
@@ -69,17 +79,33 @@ public class ClassTranslator {
             TypeStruct struct = TypeStruct(decl.getName(), StructFieldList());
             llvmProg.getStructTypes().add(struct);
             classStructs.put(struct, decl);
+
+            // the '.' keeps the name apart from class names
+            TypeStruct vtableStruct = TypeStruct("vtable." + decl.getName(), StructFieldList());
+            llvmProg.getStructTypes().add(vtableStruct);
+            vtableStructs.put(decl, vtableStruct);
+
+            NQJClassDecl superClass = decl.getDirectSuperClass();
+            if (superClass != null) {
+                directSubclasses.computeIfAbsent(superClass, c -> new ArrayList<>()).add(decl);
+            }
         }
     }
 
     private void initFields(NQJClassDecl classDecl) {
         TypeStruct struct = getStructOf(classDecl);
-        struct.setFields(
-                classDecl.getFields()
+        StructFieldList fields = classDecl.getFields()
                 .stream()
                 .map(decl -> StructField(
                         translateType(decl.getType()), decl.getName()))
-                .collect(Collectors.toCollection(Ast::StructFieldList)));
+                .collect(Collectors.toCollection(Ast::StructFieldList));
+        // every object starts with a pointer to the vtable of its class
+        fields.addFront(vtableField(classDecl));
+        struct.setFields(fields);
+    }
+
+    private StructField vtableField(NQJClassDecl classDecl) {
+        return StructField(TypePointer(vtableStructs.get(classDecl)), VTABLE_FIELD);
     }
 
     /**
@@ -119,17 +145,130 @@ public class ClassTranslator {
                     .collect(Collectors.toList())
             );
 
-            //copying fields
+            //copying fields, the vtable field of this class replaces the inherited one
             StructFieldList newFields = inheritedFields
                     .stream()
+                    .filter(field -> !field.getName().equals(VTABLE_FIELD))
                     .map(StructField::copy)
                     .collect(Collectors.toCollection(Ast::StructFieldList));
+            newFields.addFront(vtableField(classDecl));
 
             struct.setFields(newFields);
 
         }
     }
 
+    /**
+     * Creates the vtables of all classes.
+     *
+     * The vtable of a class starts with the slots of its super class in the same order,
+     * followed by the methods the class adds. Each slot has the exact type of the
+     * procedure stored in it, so calls through a super class vtable only differ
+     * in the pointer type of the receiver.
+     */
+    private void initVtables(NQJClassDeclList classes) {
+        for (NQJClassDecl decl : classes) {
+            TypeStruct vtableStruct = vtableStructs.get(decl);
+            StructFieldList slotTypes = StructFieldList();
+            ConstList slotValues = ConstList();
+            for (String methodName : getVtableSlots(decl)) {
+                Proc impl = lookupMethod(decl, methodName);
+                slotTypes.add(StructField(TypePointer(procType(impl)), methodName));
+                slotValues.add(ProcedureRef(impl));
+            }
+            vtableStruct.setFields(slotTypes);
+
+            Global vtable = Global(vtableStruct, decl.getName() + ".vtable", true,
+                    ConstStruct(vtableStruct, slotValues));
+            llvmProg.getGlobals().add(vtable);
+            vtables.put(decl, vtable);
+        }
+    }
+
+    /** Method names in slot order, inherited slots first. */
+    private List<String> getVtableSlots(NQJClassDecl classDecl) {
+        List<String> slots = vtableSlots.get(classDecl);
+        if (slots == null) {
+            NQJClassDecl superClass = classDecl.getDirectSuperClass();
+            slots = superClass == null
+                    ? new ArrayList<>()
+                    : new ArrayList<>(getVtableSlots(superClass));
+            for (NQJFunctionDecl method : classDecl.getMethods()) {
+                if (!slots.contains(method.getName())) {
+                    slots.add(method.getName());
+                }
+            }
+            vtableSlots.put(classDecl, slots);
+        }
+        return slots;
+    }
+
+    private static TypeProc procType(Proc proc) {
+        TypeRefList argTypes = TypeRefList();
+        for (Parameter p : proc.getParameters()) {
+            argTypes.add(p.getType());
+        }
+        return TypeProc(argTypes, proc.getReturnType());
+    }
+
+    /**
+     * Class hierarchy analysis: checks whether all subclasses of the given class
+     * use the same implementation of the method, so that a call on a receiver
+     * of this static type can be bound directly.
+     */
+    boolean isMonomorphic(NQJClassDecl classDecl, NQJFunctionDecl method) {
+        Set<Proc> implementations = new HashSet<>();
+        collectImplementations(classDecl, method.getName(), implementations);
+        return implementations.size() <= 1;
+    }
+
+    private void collectImplementations(NQJClassDecl classDecl, String methodName,
+                                        Set<Proc> result) {
+        result.add(lookupMethod(classDecl, methodName));
+        for (NQJClassDecl sub : directSubclasses.getOrDefault(classDecl, List.of())) {
+            collectImplementations(sub, methodName, result);
+        }
+    }
+
+    /**
+     * Returns the procedure to call for the method on the given receiver.
+     *
+     * Monomorphic calls get the procedure directly, all other calls load it
+     * from the vtable of the receiver.
+     */
+    Operand methodToCall(Operand receiver, NQJClassDecl receiverClass,
+                         NQJFunctionDecl method) {
+        if (isMonomorphic(receiverClass, method)) {
+            directMethodCalls++;
+            return ProcedureRef(getMethodProcedure(receiverClass, method));
+        }
+        virtualMethodCalls++;
+
+        // load the vtable
+        TemporaryVar vtableAddr = TemporaryVar("vtableAddr");
+        addInstruction(FunTranslator.inbounds(GetElementPtr(vtableAddr, receiver.copy(),
+                OperandList(ConstInt(0), ConstInt(0)))));
+        TemporaryVar vtable = TemporaryVar("vtable");
+        addInstruction(Load(vtable, VarRef(vtableAddr)));
+
+        // load the method from its slot
+        int slot = getVtableSlots(receiverClass).indexOf(method.getName());
+        TemporaryVar slotAddr = TemporaryVar("slotAddr");
+        addInstruction(FunTranslator.inbounds(GetElementPtr(slotAddr, VarRef(vtable),
+                OperandList(ConstInt(0), ConstInt(slot)))));
+        TemporaryVar function = TemporaryVar(method.getName() + "_impl");
+        addInstruction(Load(function, VarRef(slotAddr)));
+        return VarRef(function);
+    }
+
+    int getDirectMethodCalls() {
+        return directMethodCalls;
+    }
+
+    int getVirtualMethodCalls() {
+        return virtualMethodCalls;
+    }
+
     /**
      * Creates object constructor procedures for all declared classes
      */
@@ -159,18 +298,19 @@ public class ClassTranslator {
 
             StructFieldList fields = objStruct.getFields();
 
-            // setting fields to initial values
+            // the allocated memory is zeroed, which is the default value of all fields,
+            // only the header with the vtable of the class has to be set
             for (int i = 0; i < fields.size(); i++) {
                 StructField field = fields.get(i);
-                TemporaryVar defaultField = TemporaryVar(field.getName());
-                block.add(GetElementPtr(
-                        defaultField, VarRef(newObj), OperandList(ConstInt(0), ConstInt(i))
-                ));
-
-                // all fields are instantiated with default values
-                Operand defaultValue = defaultValue(field.getType());
+                if (!field.getName().equals(VTABLE_FIELD)) {
+                    continue;
+                }
+                TemporaryVar header = TemporaryVar(field.getName());
+                block.add(FunTranslator.inbounds(GetElementPtr(
+                        header, VarRef(newObj), OperandList(ConstInt(0), ConstInt(i))
+                )));
                 block.add(Store(
-                        VarRef(defaultField), defaultValue
+                        VarRef(header), GlobalRef(vtables.get(decl))
                 ));
             }
             block.add(ReturnExpr(VarRef(newObj)));
@@ -229,14 +369,15 @@ public class ClassTranslator {
             int i = 1;
             for (NQJVarDecl param : method.getFormalParameters()) {
                 TemporaryVar v = TemporaryVar(param.getName());
-                addInstruction(Alloca(v, translateType(param.getType())));
-                addInstruction(Store(VarRef(v), VarRef(proc.getParameters().get(i))));
+                funTranslator.declareLocal(v, translateType(param.getType()));
+                funTranslator.storeLocal(v, VarRef(proc.getParameters().get(i)));
                 localMethodVars.put(param, v);
                 i++;
             }
 
             allocaSpaceForLocals(method.getMethodBody());
             translateStmt(method.getMethodBody());
+            funTranslator.finishProc();
         }
     }
 
@@ -259,7 +400,7 @@ public class ClassTranslator {
             public void visit(NQJVarDecl localVar) {
                 super.visit(localVar);
                 TemporaryVar v = TemporaryVar(localVar.getName());
-                addInstruction(Alloca(v, translateType(localVar.getType())));
+                funTranslator.declareLocal(v, translateType(localVar.getType()));
                 localMethodVars.put(localVar, v);
             }
         });
@@ -340,11 +481,15 @@ public class ClassTranslator {
     }
 
     Proc getMethodProcedure(NQJClassDecl classDecl, NQJFunctionDecl method) {
+        return lookupMethod(classDecl, method.getName());
+    }
+
+    private Proc lookupMethod(NQJClassDecl classDecl, String methodName) {
 
         // lookup method in given class
         for (Proc proc : classMethods.get(classDecl)) {
             if (proc.getName().equals(
-                    classDecl.getName() + "_" + method.getName()))
+                    classDecl.getName() + "_" + methodName))
                 return proc;
         }
 
@@ -352,7 +497,7 @@ public class ClassTranslator {
         // this means, method is inherited
         NQJClassDecl directSuper = classDecl.getDirectSuperClass();
         return directSuper != null
-                ? getMethodProcedure(directSuper, method)
+                ? lookupMethod(directSuper, methodName)
                 : null;
     }
 
@@ -456,66 +601,4 @@ public class ClassTranslator {
             }
         });
     }
-
-    Operand defaultValue(Type componentType) {
-        return componentType.match(new Type.Matcher<>() {
-            @Override
-            public Operand case_TypeByte(TypeByte typeByte) {
-                return ConstInt(8);
-            }
-
-            @Override
-            public Operand case_TypeArray(TypeArray typeArray) {
-                return Nullpointer();
-            }
-
-            @Override
-            public Operand case_TypeProc(TypeProc typeProc) {
-                TypeRefList typesOfArgs = typeProc.getArgTypes();
-                ParameterList params = ParameterList();
-                int i = 1;
-
-                for (Type t : typesOfArgs) {
-                    params.add(Parameter(t, "Param" + i));
-                    i++;
-                }
-
-                Proc proc = Proc(
-                        "default", typeProc.getResultType(), params, BasicBlockList()
-                );
-
-                return ProcedureRef(proc);
-            }
-
-            @Override
-            public Operand case_TypeInt(TypeInt typeInt) {
-                return ConstInt(0);
-            }
-
-            @Override
-            public Operand case_TypeStruct(TypeStruct typeStruct) {
-                return Nullpointer();
-            }
-
-            @Override
-            public Operand case_TypeNullpointer(TypeNullpointer typeNullpointer) {
-                return Nullpointer();
-            }
-
-            @Override
-            public Operand case_TypeVoid(TypeVoid typeVoid) {
-                return Nullpointer();
-            }
-
-            @Override
-            public Operand case_TypeBool(TypeBool typeBool) {
-                return ConstBool(false);
-            }
-
-            @Override
-            public Operand case_TypePointer(TypePointer typePointer) {
-                return Nullpointer();
-            }
-        });
-    }
 }
@@ -16,6 +16,7 @@ public class CurrentStates {
     private NQJClassDecl currentClass;
     private Proc currentProc;
     private BasicBlock currentBlock;
+    private SsaBuilder ssa;
 
     void setClass(NQJClassDecl c) {
         currentClass = c;
@@ -27,10 +28,30 @@ public class CurrentStates {
 
     void setBlock(BasicBlock b) {
         currentBlock = b;
+        if (ssa != null) {
+            ssa.enterBlock(b);
+        }
     }
 
     void addInstructionToBlock(Instruction i) {
         currentBlock.add(i);
+        if (ssa != null) {
+            ssa.addedInstruction(currentBlock, i);
+        }
+    }
+
+    /**
+     * Enables building SSA form directly, see {@link SsaBuilder}.
+     */
+    void enableSsa() {
+        ssa = new SsaBuilder(this);
+    }
+
+    /**
+     * The SSA builder, null if locals are kept in allocas.
+     */
+    SsaBuilder getSsa() {
+        return ssa;
     }
 
     void addBasicBlockToProc(BasicBlock b) {
@@ -22,7 +22,7 @@ public class ExprLValue implements NQJExprL.Matcher<Operand> {
     @Override
     public Operand case_ArrayLookup(NQJArrayLookup e) {
         Operand arrayAddr = funTr.exprRvalue(e.getArrayExpr());
-        funTr.addNullcheck(arrayAddr, "Nullpointer exception in line " + funTr.sourceLine(e));
+        funTr.addNullcheck(arrayAddr, "Nullpointer exception", funTr.sourceLine(e), 0);
 
         Operand index = funTr.exprRvalue(e.getArrayIndex());
 
@@ -46,19 +46,22 @@ public class ExprLValue implements NQJExprL.Matcher<Operand> {
         addInstruction(BinaryOperation(outOfBoundsV,
                 VarRef(smallerZero), Or(), VarRef(greaterEqualLen)));
 
-        addInstruction(Ast.Branch(VarRef(outOfBoundsV), outOfBounds, indexInRange));
+        addInstruction(FunTranslator.unlikelyBranch(
+                VarRef(outOfBoundsV), outOfBounds, indexInRange));
 
         addBasicBlock(outOfBounds);
-        outOfBounds.add(Ast.HaltWithError("Index out of bounds error in line " + funTr.sourceLine(e)));
+        outOfBounds.add(FunTranslator.haltWithError("Index out of bounds error",
+                funTr.sourceLine(e), 0));
 
         addBasicBlock(indexInRange);
         setCurrentBlock(indexInRange);
         TemporaryVar indexAddr = Ast.TemporaryVar("indexAddr");
-        addInstruction(Ast.GetElementPtr(indexAddr, arrayAddr, Ast.OperandList(
-                Ast.ConstInt(0),
-                Ast.ConstInt(1),
-                index.copy()
-        )));
+        addInstruction(FunTranslator.inbounds(Ast.GetElementPtr(indexAddr, arrayAddr,
+                Ast.OperandList(
+                        Ast.ConstInt(0),
+                        Ast.ConstInt(1),
+                        index.copy()
+                ))));
         return VarRef(indexAddr);
     }
 
@@ -70,9 +73,8 @@ public class ExprLValue implements NQJExprL.Matcher<Operand> {
         TypeStruct struct = (TypeStruct) pointerToStruct.getTo();
 
         // receiver cannot be null
-        funTr.addNullcheck(objRef, "Nullpointer Exception in line "
-                + e.getSourcePosition().getLine() + ":"
-                + e.getSourcePosition().getColumn()  + ".");
+        funTr.addNullcheck(objRef, "Nullpointer Exception",
+                e.getSourcePosition().getLine(), e.getSourcePosition().getColumn());
 
         // find the index of field
         int index = 0;
@@ -89,9 +91,9 @@ public class ExprLValue implements NQJExprL.Matcher<Operand> {
         // accessing field
         TemporaryVar access = TemporaryVar("fieldAccess");
 
-        addInstruction(Ast.GetElementPtr(
+        addInstruction(FunTranslator.inbounds(Ast.GetElementPtr(
                 access, objRef, OperandList(ConstInt(0), ConstInt(index))
-        ));
+        )));
         return Ast.VarRef(access);
     }
 
@@ -109,10 +111,9 @@ public class ExprLValue implements NQJExprL.Matcher<Operand> {
 
             // Variable of current method, because of shadowing, consider this case
             // before considering class variable case
-            for (NQJVarDecl v : classTr.getLocalMethodVars().keySet()) {
-                if (v.getName().equals(varDecl.getName())) {
-                    return VarRef(classTr.getLocalMethodVars().get(v));
-                }
+            TemporaryVar local = funTr.localVar(e);
+            if (local != null) {
+                return VarRef(local);
             }
 
             // Variable of current class.
@@ -131,11 +132,11 @@ public class ExprLValue implements NQJExprL.Matcher<Operand> {
                 StructField field = fields.get(i);
                 if (field.getName().equals(varDecl.getName())) {
                     TemporaryVar classVarP = TemporaryVar("classVar_" + field.getName());
-                    addInstruction(GetElementPtr(
+                    addInstruction(FunTranslator.inbounds(GetElementPtr(
                             classVarP,
                             castToThisClass,
                             OperandList(ConstInt(0), ConstInt(i))
-                    ));
+                    )));
                     return VarRef(classVarP);
                 }
             }
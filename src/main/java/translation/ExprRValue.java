@@ -47,8 +47,8 @@ public class ExprRValue implements NQJExpr.Matcher<Operand> {
     @Override
     public Operand case_ArrayLength(NQJArrayLength e) {
         Operand a = funTr.exprRvalue(e.getArrayExpr());
-        funTr.addNullcheck(a,
-                "Nullpointer exception when reading array length in line " + funTr.sourceLine(e));
+        funTr.addNullcheck(a, "Nullpointer exception when reading array length",
+                funTr.sourceLine(e), 0);
         return funTr.getArrayLen(a);
     }
 
@@ -71,8 +71,8 @@ public class ExprRValue implements NQJExpr.Matcher<Operand> {
                 BasicBlock andRight = funTr.newBasicBlock("and_first_true");
                 BasicBlock andEnd = funTr.newBasicBlock("and_end");
                 TemporaryVar andResVar = TemporaryVar("andResVar");
-                addInstruction(Ast.Alloca(andResVar, Ast.TypeBool()));
-                addInstruction(Ast.Store(VarRef(andResVar), left));
+                funTr.declareLocal(andResVar, Ast.TypeBool());
+                funTr.storeLocal(andResVar, left);
                 addInstruction(Ast.Branch(left.copy(), andRight, andEnd));
 
                 addBasicBlock(andRight);
@@ -80,14 +80,12 @@ public class ExprRValue implements NQJExpr.Matcher<Operand> {
 
                 Operand right = funTr.exprRvalue(e.getRight());
 
-                addInstruction(Ast.Store(VarRef(andResVar), right));
+                funTr.storeLocal(andResVar, right);
                 addInstruction(Ast.Jump(andEnd));
 
                 addBasicBlock(andEnd);
                 setCurrentBlock(andEnd);
-                TemporaryVar andRes = TemporaryVar("andRes");
-                andEnd.add(Ast.Load(andRes, VarRef(andResVar)));
-                return VarRef(andRes);
+                return funTr.loadLocal(andResVar, "andRes");
             }
 
 
@@ -108,16 +106,17 @@ public class ExprRValue implements NQJExpr.Matcher<Operand> {
             public Operand case_Div(NQJDiv div) {
                 Operand right = funTr.exprRvalue(e.getRight());
                 TemporaryVar divResVar = TemporaryVar("divResVar");
-                addInstruction(Ast.Alloca(divResVar, Ast.TypeInt()));
+                funTr.declareLocal(divResVar, Ast.TypeInt());
                 TemporaryVar isZero = TemporaryVar("isZero");
                 addInstruction(BinaryOperation(isZero, right, Eq(), ConstInt(0)));
                 BasicBlock ifZero = funTr.newBasicBlock("ifZero");
                 BasicBlock notZero = funTr.newBasicBlock("notZero");
 
-                addInstruction(Ast.Branch(VarRef(isZero), ifZero, notZero));
+                addInstruction(FunTranslator.unlikelyBranch(VarRef(isZero), ifZero, notZero));
 
                 addBasicBlock(ifZero);
-                ifZero.add(Ast.HaltWithError("Division by zero in line " + funTr.sourceLine(e)));
+                ifZero.add(FunTranslator.haltWithError("Division by zero",
+                        funTr.sourceLine(e), 0));
 
 
                 addBasicBlock(notZero);
@@ -135,23 +134,22 @@ public class ExprRValue implements NQJExpr.Matcher<Operand> {
                 TemporaryVar isOverflow = TemporaryVar("isOverflow");
                 addInstruction(BinaryOperation(isOverflow,
                         VarRef(isMinInt), And(), VarRef(isMinusOne)));
-                addInstruction(Ast.Store(VarRef(divResVar), ConstInt(Integer.MIN_VALUE)));
-                addInstruction(Ast.Branch(VarRef(isOverflow), divEnd, divNoOverflow));
+                funTr.storeLocal(divResVar, ConstInt(Integer.MIN_VALUE));
+                addInstruction(FunTranslator.unlikelyBranch(
+                        VarRef(isOverflow), divEnd, divNoOverflow));
 
 
                 addBasicBlock(divNoOverflow);
                 setCurrentBlock(divNoOverflow);
                 TemporaryVar divResultA = TemporaryVar("divResultA");
                 addInstruction(BinaryOperation(divResultA, left, Ast.Sdiv(), right.copy()));
-                addInstruction(Ast.Store(VarRef(divResVar), VarRef(divResultA)));
+                funTr.storeLocal(divResVar, VarRef(divResultA));
                 addInstruction(Ast.Jump(divEnd));
 
 
                 addBasicBlock(divEnd);
                 setCurrentBlock(divEnd);
-                TemporaryVar divResultB = TemporaryVar("divResultB");
-                addInstruction(Ast.Load(divResultB, VarRef(divResVar)));
-                return VarRef(divResultB);
+                return funTr.loadLocal(divResVar, "divResultB");
             }
 
             @Override
@@ -218,7 +216,6 @@ public class ExprRValue implements NQJExpr.Matcher<Operand> {
             if (proc == null) {
                 // then, lookup in current class methods, including inherited methods
                 NQJClassDecl currClass = currStates.getCurrClass();
-                proc = classTr.getMethodProcedure(currClass, funDecl);
 
                 // Method may be inherited, so its class can be different
                 // from current class
@@ -226,11 +223,18 @@ public class ExprRValue implements NQJExpr.Matcher<Operand> {
                         classTr.getStructOfMethod(currClass, funDecl);
 
                 // first parameter of current method is the class pointer
+                Operand thisRef = VarRef(currStates.getProc().getParameters().get(0));
                 Operand casted = funTr.addCastIfNecessary(
-                        VarRef(currStates.getProc().getParameters().get(0)),
+                        thisRef,
                         TypePointer(structOfMethod)
                 );
                 args.addFront(casted);
+
+                // implicit call on this, may be overridden in a subclass
+                Operand function = classTr.methodToCall(thisRef, currClass, funDecl);
+                TemporaryVar result = TemporaryVar(e.getMethodName() + "_result");
+                addInstruction(Ast.Call(result, function, args));
+                return VarRef(result);
             }
 
             // do the call
@@ -247,6 +251,10 @@ public class ExprRValue implements NQJExpr.Matcher<Operand> {
 
     @Override
     public Operand case_Read(NQJRead read) {
+        TemporaryVar local = funTr.localVar(read.getAddress());
+        if (local != null) {
+            return funTr.loadLocal(local, "read");
+        }
         TemporaryVar res = TemporaryVar("read");
         Operand op = funTr.exprLvalue(read.getAddress());
         addInstruction(Ast.Load(res, op));
@@ -260,10 +268,8 @@ public class ExprRValue implements NQJExpr.Matcher<Operand> {
         Type type = receiver.calculateType();
 
         // receiver must not be null
-        funTr.addNullcheck(
-                receiver, "Nullpointer Exception in line "
-                + e.getSourcePosition().getLine() + ":"
-                        + e.getSourcePosition().getColumn() + ".");
+        funTr.addNullcheck(receiver, "Nullpointer Exception",
+                e.getSourcePosition().getLine(), e.getSourcePosition().getColumn());
 
         // Get rid of pointers and get the class struct
         while (!(type instanceof TypeStruct)) {
@@ -278,8 +284,11 @@ public class ExprRValue implements NQJExpr.Matcher<Operand> {
                 e.getFunctionDeclaration();
         NQJClassDecl receiverClass =
                 classTr.getClassDeclOf(classStruct);
-        Proc method =
-                classTr.getMethodProcedure(receiverClass, funDecl);
+
+        // direct call if the method is not overridden below the receiver's class,
+        // otherwise the method is taken from the vtable
+        Operand method =
+                classTr.methodToCall(receiver, receiverClass, funDecl);
 
         OperandList args = OperandList();
 
@@ -306,7 +315,7 @@ public class ExprRValue implements NQJExpr.Matcher<Operand> {
         // do the call
         TemporaryVar result = TemporaryVar(className + "_" + e.getMethodName() + "_result");
         addInstruction(Ast.Call(
-                result, ProcedureRef(method), args
+                result, method, args
         ));
         return VarRef(result);
     }
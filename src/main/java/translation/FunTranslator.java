@@ -15,6 +15,9 @@ import static minillvm.ast.Ast.*;
  * Translates global functions and arrays of an NQJ program to LLVM.
  */
 public class FunTranslator {
+    /** Branch weights of error checks, like __builtin_expect in clang. */
+    private static final int UNLIKELY_WEIGHT = 1;
+    private static final int LIKELY_WEIGHT = 2000;
 
     private final StmtTranslator stmtTranslator;
     private final ExprRValue exprRValue;
@@ -81,7 +84,7 @@ public class FunTranslator {
                 VarRef(size), Slt(), ConstInt(0)));
         BasicBlock negativeSize = newBasicBlock("negativeSize");
         BasicBlock goodSize = newBasicBlock("goodSize");
-        addInstruction(Branch(VarRef(sizeLessThanZero), negativeSize, goodSize));
+        addInstruction(unlikelyBranch(VarRef(sizeLessThanZero), negativeSize, goodSize));
 
         addBasicBlock(negativeSize);
         negativeSize.add(HaltWithError("Array Size must be positive"));
@@ -108,48 +111,12 @@ public class FunTranslator {
 
         // store the size
         TemporaryVar sizeAddr = TemporaryVar("sizeAddr");
-        addInstruction(GetElementPtr(sizeAddr,
-                VarRef(newArray), OperandList(ConstInt(0), ConstInt(0))));
+        addInstruction(inbounds(GetElementPtr(sizeAddr,
+                VarRef(newArray), OperandList(ConstInt(0), ConstInt(0)))));
         addInstruction(Store(VarRef(sizeAddr), VarRef(size)));
 
-        // initialize Array with zeros:
-        final BasicBlock loopStart = newBasicBlock("loopStart");
-        final BasicBlock loopBody = newBasicBlock("loopBody");
-        final BasicBlock loopEnd = newBasicBlock("loopEnd");
-        final TemporaryVar iVar = TemporaryVar("iVar");
-        addInstruction(Alloca(iVar, TypeInt()));
-        addInstruction(Store(VarRef(iVar), ConstInt(0)));
-        addInstruction(Jump(loopStart));
-
-        // loop condition: while i < size
-        addBasicBlock(loopStart);
-        setCurrentBlock(loopStart);
-        final TemporaryVar i = TemporaryVar("i");
-        final TemporaryVar nextI = TemporaryVar("nextI");
-        loopStart.add(Load(i, VarRef(iVar)));
-        TemporaryVar smallerSize = TemporaryVar("smallerSize");
-        addInstruction(BinaryOperation(smallerSize,
-                VarRef(i), Slt(), VarRef(size)));
-        addInstruction(Branch(VarRef(smallerSize), loopBody, loopEnd));
-
-        // loop body
-        addBasicBlock(loopBody);
-        setCurrentBlock(loopBody);
-        // ar[i] = 0;
-        final TemporaryVar iAddr = TemporaryVar("iAddr");
-        addInstruction(GetElementPtr(iAddr,
-                VarRef(newArray), OperandList(ConstInt(0), ConstInt(1), VarRef(i))));
-        addInstruction(Store(VarRef(iAddr), classTr.defaultValue(componentType)));
-
-        // nextI = i + 1;
-        addInstruction(BinaryOperation(nextI, VarRef(i), Add(), ConstInt(1)));
-        // store new value in i
-        addInstruction(Store(VarRef(iVar), VarRef(nextI)));
-
-        loopBody.add(Jump(loopStart));
-
-        addBasicBlock(loopEnd);
-        loopEnd.add(ReturnExpr(VarRef(newArray)));
+        // the elements are zero, because the allocated memory is zeroed
+        addInstruction(ReturnExpr(VarRef(newArray)));
     }
 
     void translateFunctions() {
@@ -194,6 +161,7 @@ public class FunTranslator {
 
         // translate
         translateStmt(f.getMethodBody());
+        finishProc();
     }
 
     private void initFunction(NQJFunctionDecl f) {
@@ -220,8 +188,8 @@ public class FunTranslator {
         int i = 0;
         for (NQJVarDecl param : m.getFormalParameters()) {
             TemporaryVar v = TemporaryVar(param.getName());
-            addInstruction(Alloca(v, classTr.translateType(param.getType())));
-            addInstruction(Store(VarRef(v), VarRef(proc.getParameters().get(i))));
+            declareLocal(v, classTr.translateType(param.getType()));
+            storeLocal(v, VarRef(proc.getParameters().get(i)));
             localVarLocation.put(param, v);
             i++;
         }
@@ -230,6 +198,7 @@ public class FunTranslator {
         allocaLocalVars(m.getMethodBody());
 
         translateStmt(m.getMethodBody());
+        finishProc();
     }
 
     void translateStmt(NQJStatement s) {
@@ -285,12 +254,102 @@ public class FunTranslator {
             public void visit(NQJVarDecl localVar) {
                 super.visit(localVar);
                 TemporaryVar v = TemporaryVar(localVar.getName());
-                addInstruction(Alloca(v, translateType(localVar.getType())));
+                declareLocal(v, translateType(localVar.getType()));
                 localVarLocation.put(localVar, v);
             }
         });
     }
 
+    /**
+     * Enables building SSA form during the translation instead of
+     * keeping locals in allocas.
+     */
+    void enableSsa() {
+        currStates.enableSsa();
+    }
+
+    boolean isSsa() {
+        return currStates.getSsa() != null;
+    }
+
+    /**
+     * Declares a local, with an alloca unless SSA form is built directly.
+     */
+    void declareLocal(TemporaryVar local, Type type) {
+        SsaBuilder ssa = currStates.getSsa();
+        if (ssa != null) {
+            ssa.declare(local, type);
+        } else {
+            addInstruction(Alloca(local, type));
+        }
+    }
+
+    void storeLocal(TemporaryVar local, Operand value) {
+        SsaBuilder ssa = currStates.getSsa();
+        if (ssa != null) {
+            ssa.write(local, currStates.getBlock(), addCastIfNecessary(value, ssa.getType(local)));
+        } else {
+            addInstruction(Store(VarRef(local), value));
+        }
+    }
+
+    Operand loadLocal(TemporaryVar local, String name) {
+        SsaBuilder ssa = currStates.getSsa();
+        if (ssa != null) {
+            return ssa.read(local, currStates.getBlock());
+        }
+        TemporaryVar result = TemporaryVar(name);
+        addInstruction(Load(result, VarRef(local)));
+        return VarRef(result);
+    }
+
+    /**
+     * The declared local, if the expression is a use of a local variable or parameter.
+     */
+    TemporaryVar localVar(NQJExprL e) {
+        if (!(e instanceof NQJVarUse)) {
+            return null;
+        }
+        NQJVarDecl varDecl = ((NQJVarUse) e).getVariableDeclaration();
+        if (currStates.getCurrClass() == null) {
+            return localVarLocation.get(varDecl);
+        }
+        // because of shadowing, locals of the method come before fields
+        for (Map.Entry<NQJVarDecl, TemporaryVar> local : classTr.getLocalMethodVars().entrySet()) {
+            if (local.getKey().getName().equals(varDecl.getName())) {
+                return local.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Keeps a loop header open for phi nodes until {@link #endLoop} is called.
+     */
+    void startLoop(BasicBlock header) {
+        if (currStates.getSsa() != null) {
+            currStates.getSsa().deferSealing(header);
+        }
+    }
+
+    /**
+     * Called after the back edge to the loop header was added.
+     */
+    void endLoop(BasicBlock header) {
+        if (currStates.getSsa() != null) {
+            currStates.getSsa().seal(header);
+        }
+    }
+
+    /**
+     * Called after the body of a procedure was translated.
+     */
+    void finishProc() {
+        if (currStates.getSsa() != null) {
+            currStates.getSsa().finishProc();
+        }
+    }
+
     void addInstruction(Instruction instruction) {
         currStates.addInstructionToBlock(instruction);
     }
@@ -311,25 +370,56 @@ public class FunTranslator {
         return e.match(exprRValue);
     }
 
-    void addNullcheck(Operand arrayAddr, String errorMessage) {
+    /**
+     * An instruction halting with the given message. The position is printed
+     * after the message, unless it is 0.
+     */
+    static HaltWithError haltWithError(String message, int line, int column) {
+        HaltWithError halt = HaltWithError(message);
+        halt.setLine(line);
+        halt.setColumn(column);
+        return halt;
+    }
+
+    void addNullcheck(Operand arrayAddr, String errorMessage, int line, int column) {
         TemporaryVar isNull = TemporaryVar("isNull");
         addInstruction(BinaryOperation(isNull, arrayAddr.copy(), Eq(), Nullpointer()));
 
         BasicBlock whenIsNull = newBasicBlock("whenIsNull");
         BasicBlock notNull = newBasicBlock("notNull");
-        addInstruction(Branch(VarRef(isNull), whenIsNull, notNull));
+        addInstruction(unlikelyBranch(VarRef(isNull), whenIsNull, notNull));
 
         addBasicBlock(whenIsNull);
-        whenIsNull.add(HaltWithError(errorMessage));
+        whenIsNull.add(haltWithError(errorMessage, line, column));
 
         addBasicBlock(notNull);
         setCurrentBlock(notNull);
     }
 
+    /**
+     * A branch which is almost never taken, like the ones to error blocks.
+     * LLVM moves the unlikely block out of the hot path.
+     */
+    static Branch unlikelyBranch(Operand condition, BasicBlock unlikely, BasicBlock likely) {
+        Branch branch = Branch(condition, unlikely, likely);
+        branch.setTrueWeight(UNLIKELY_WEIGHT);
+        branch.setFalseWeight(LIKELY_WEIGHT);
+        return branch;
+    }
+
+    /**
+     * Marks an address as staying inside of its object. This holds for all addresses
+     * the translation computes, because they are only used after null and bounds checks.
+     */
+    static GetElementPtr inbounds(GetElementPtr gep) {
+        gep.setInbounds(true);
+        return gep;
+    }
+
     Operand getArrayLen(Operand arrayAddr) {
         TemporaryVar addr = TemporaryVar("length_addr");
-        addInstruction(GetElementPtr(addr,
-                arrayAddr.copy(), OperandList(ConstInt(0), ConstInt(0))));
+        addInstruction(inbounds(GetElementPtr(addr,
+                arrayAddr.copy(), OperandList(ConstInt(0), ConstInt(0)))));
         TemporaryVar len = TemporaryVar("len");
         addInstruction(Load(len, VarRef(addr)));
         return VarRef(len);
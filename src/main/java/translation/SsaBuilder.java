@@ -0,0 +1,267 @@
+package translation;
+
+import minillvm.ast.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static minillvm.ast.Ast.*;
+
+/**
+ * Builds SSA form while translating, following Braun et al.,
+ * "Simple and Efficient Construction of Static Single Assignment Form".
+ *
+ * <p>A local is identified by the variable which would otherwise hold its alloca.
+ * The current definition of every local is tracked per basic block. Reading a local
+ * in a block without a definition continues in the predecessors and inserts phi nodes
+ * at join points. A block is sealed, i.e. its predecessors are complete, when it
+ * becomes the current block, loop headers only after the back edge was added.
+ */
+class SsaBuilder {
+    private final CurrentStates currStates;
+    private final Map<TemporaryVar, Type> types = new HashMap<>();
+    private final Map<BasicBlock, Map<TemporaryVar, Operand>> currentDef = new HashMap<>();
+    private final Map<BasicBlock, List<BasicBlock>> predecessors = new HashMap<>();
+    private final Set<BasicBlock> sealed = new HashSet<>();
+    private final Set<BasicBlock> deferred = new HashSet<>();
+    private final Map<BasicBlock, Map<TemporaryVar, PhiNode>> incompletePhis = new HashMap<>();
+    /** All phi nodes of the current procedure and their local. */
+    private final Map<PhiNode, TemporaryVar> phis = new LinkedHashMap<>();
+    private final List<Bitcast> typedNulls = new ArrayList<>();
+
+    SsaBuilder(CurrentStates currStates) {
+        this.currStates = currStates;
+    }
+
+    /**
+     * Declares a local, reading it before the first write gives the default value.
+     */
+    void declare(TemporaryVar local, Type type) {
+        types.put(local, type);
+    }
+
+    Type getType(TemporaryVar local) {
+        return types.get(local);
+    }
+
+    void write(TemporaryVar local, BasicBlock block, Operand value) {
+        if (value instanceof Nullpointer) {
+            // keep the type, the value may be used as an address
+            value = typedNull(types.get(local));
+        }
+        currentDef.computeIfAbsent(block, b -> new HashMap<>()).put(local, value.copy());
+    }
+
+    /**
+     * The value of the local at the end of the block, a fresh operand.
+     */
+    Operand read(TemporaryVar local, BasicBlock block) {
+        return readDefinition(local, block).copy();
+    }
+
+    private Operand readDefinition(TemporaryVar local, BasicBlock block) {
+        Operand value = currentDef.getOrDefault(block, Map.of()).get(local);
+        if (value != null) {
+            return value;
+        }
+        List<BasicBlock> preds = predecessors.getOrDefault(block, List.of());
+        if (!sealed.contains(block)) {
+            PhiNode phi = newPhi(local, block);
+            incompletePhis.computeIfAbsent(block, b -> new LinkedHashMap<>()).put(local, phi);
+            value = VarRef(phi.getVar());
+        } else if (preds.isEmpty()) {
+            // entry block or unreachable
+            value = defaultValue(types.get(local));
+        } else if (preds.size() == 1) {
+            value = readDefinition(local, preds.get(0));
+        } else {
+            PhiNode phi = newPhi(local, block);
+            // break cycles through loops before looking at the predecessors
+            write(local, block, VarRef(phi.getVar()));
+            addPhiOperands(local, phi, block);
+            value = VarRef(phi.getVar());
+        }
+        write(local, block, value);
+        return value;
+    }
+
+    private PhiNode newPhi(TemporaryVar local, BasicBlock block) {
+        PhiNode phi = PhiNode(TemporaryVar(local.getName()), types.get(local), PhiNodeChoiceList());
+        block.addFront(phi);
+        phis.put(phi, local);
+        return phi;
+    }
+
+    private void addPhiOperands(TemporaryVar local, PhiNode phi, BasicBlock block) {
+        for (BasicBlock pred : predecessors.getOrDefault(block, List.of())) {
+            phi.getChoices().add(PhiNodeChoice(pred, readDefinition(local, pred).copy()));
+        }
+    }
+
+    /**
+     * Records the edges of jumps and branches added to a block of the procedure.
+     */
+    void addedInstruction(BasicBlock block, Instruction instruction) {
+        if (block.getParent() == null) {
+            // code after a return
+            return;
+        }
+        if (instruction instanceof Jump) {
+            addEdge(block, ((Jump) instruction).getLabel());
+        } else if (instruction instanceof Branch) {
+            addEdge(block, ((Branch) instruction).getIfTrueLabel());
+            addEdge(block, ((Branch) instruction).getIfFalseLabel());
+        }
+    }
+
+    private void addEdge(BasicBlock from, BasicBlock to) {
+        predecessors.computeIfAbsent(to, b -> new ArrayList<>()).add(from);
+    }
+
+    /**
+     * Called when the block becomes the current block, all its predecessors are known
+     * unless sealing was deferred.
+     */
+    void enterBlock(BasicBlock block) {
+        if (!deferred.contains(block)) {
+            seal(block);
+        }
+    }
+
+    /**
+     * Keeps a loop header open until {@link #seal} is called after the back edge.
+     */
+    void deferSealing(BasicBlock block) {
+        deferred.add(block);
+    }
+
+    void seal(BasicBlock block) {
+        deferred.remove(block);
+        if (!sealed.add(block)) {
+            return;
+        }
+        Map<TemporaryVar, PhiNode> incomplete = incompletePhis.remove(block);
+        if (incomplete != null) {
+            incomplete.forEach((local, phi) -> addPhiOperands(local, phi, block));
+        }
+    }
+
+    private Operand defaultValue(Type type) {
+        if (type instanceof TypeBool) {
+            return ConstBool(false);
+        } else if (type instanceof TypeInt) {
+            return ConstInt(0);
+        }
+        return typedNull(type);
+    }
+
+    private Operand typedNull(Type type) {
+        for (Bitcast cast : typedNulls) {
+            if (cast.getType().equalsType(type)) {
+                return VarRef(cast.getVar());
+            }
+        }
+        Bitcast cast = Bitcast(TemporaryVar("null"), type, Nullpointer());
+        currStates.getProc().getBasicBlocks().get(0).addFront(cast);
+        typedNulls.add(cast);
+        return VarRef(cast.getVar());
+    }
+
+    /**
+     * Removes the phi nodes which only merge one value, and resets the state
+     * for the next procedure.
+     */
+    void finishProc() {
+        Map<Variable, Operand> replacements = new HashMap<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (PhiNode phi : phis.keySet()) {
+                if (replacements.containsKey(phi.getVar())) {
+                    continue;
+                }
+                Operand same = trivialValue(phi, replacements);
+                if (same != null) {
+                    replacements.put(phi.getVar(), same);
+                    changed = true;
+                }
+            }
+        }
+        for (PhiNode phi : phis.keySet()) {
+            if (replacements.containsKey(phi.getVar())) {
+                BasicBlock block = (BasicBlock) phi.getParent();
+                block.remove(block.indexOf(phi));
+            }
+        }
+        if (!replacements.isEmpty()) {
+            List<VarRef> uses = new ArrayList<>();
+            currStates.getProc().accept(new Element.DefaultVisitor() {
+                @Override
+                public void visit(VarRef ref) {
+                    super.visit(ref);
+                    if (replacements.containsKey(ref.getVariable())) {
+                        uses.add(ref);
+                    }
+                }
+            });
+            for (VarRef ref : uses) {
+                ref.replaceBy(resolve(ref, replacements).copy());
+            }
+        }
+
+        types.clear();
+        currentDef.clear();
+        predecessors.clear();
+        sealed.clear();
+        deferred.clear();
+        incompletePhis.clear();
+        phis.clear();
+        typedNulls.clear();
+    }
+
+    /**
+     * The only value merged by the phi node besides itself, null if there are several.
+     */
+    private Operand trivialValue(PhiNode phi, Map<Variable, Operand> replacements) {
+        Operand same = null;
+        for (PhiNodeChoice choice : phi.getChoices()) {
+            Operand value = resolve(choice.getValue(), replacements);
+            if (isVar(value, phi.getVar()) || (same != null && sameValue(value, same))) {
+                continue;
+            }
+            if (same != null) {
+                return null;
+            }
+            same = value;
+        }
+        return same != null ? same : defaultValue(phi.getType());
+    }
+
+    private static Operand resolve(Operand value, Map<Variable, Operand> replacements) {
+        while (value instanceof VarRef
+                && replacements.containsKey(((VarRef) value).getVariable())) {
+            value = replacements.get(((VarRef) value).getVariable());
+        }
+        return value;
+    }
+
+    private static boolean isVar(Operand value, Variable var) {
+        return value instanceof VarRef && ((VarRef) value).getVariable() == var;
+    }
+
+    private static boolean sameValue(Operand a, Operand b) {
+        if (a instanceof VarRef && b instanceof VarRef) {
+            return ((VarRef) a).getVariable() == ((VarRef) b).getVariable();
+        } else if (a instanceof ConstInt && b instanceof ConstInt) {
+            return ((ConstInt) a).getIntVal() == ((ConstInt) b).getIntVal();
+        } else if (a instanceof ConstBool && b instanceof ConstBool) {
+            return ((ConstBool) a).getBoolVal() == ((ConstBool) b).getBoolVal();
+        }
+        return false;
+    }
+}
@@ -33,6 +33,7 @@ public class StmtTranslator implements NQJStatement.MatcherVoid {
         addInstruction(Ast.Jump(whileStart));
 
         addBasicBlock(whileStart);
+        funTr.startLoop(whileStart);
         setCurrentBlock(whileStart);
         // evaluate condition
         Operand condition = funTr.exprRvalue(s.getCondition());
@@ -45,6 +46,7 @@ public class StmtTranslator implements NQJStatement.MatcherVoid {
         funTr.translateStmt(s.getLoopBody());
         // at end of loop body go to loop start
         addInstruction(Ast.Jump(whileStart));
+        funTr.endLoop(whileStart);
 
         // continue after loop:
         addBasicBlock(endloop);
@@ -60,6 +62,13 @@ public class StmtTranslator implements NQJStatement.MatcherVoid {
 
     @Override
     public void case_StmtAssign(NQJStmtAssign s) {
+        TemporaryVar local = funTr.localVar(s.getAddress());
+        if (local != null && funTr.isSsa()) {
+            // locals have no address when SSA form is built directly
+            funTr.storeLocal(local, funTr.exprRvalue(s.getValue()));
+            return;
+        }
+
         // first translate the left hand side
         final Operand lAddr = funTr.exprLvalue(s.getAddress());
 
@@ -15,6 +15,14 @@ public class Translator {
         classTr = funTr.getClassTranslator();
     }
 
+    /**
+     * Builds SSA form during the translation, so that locals are never
+     * kept in allocas.
+     */
+    public void enableSsa() {
+        funTr.enableSsa();
+    }
+
     /**
      * Translates given program to llvm.
      */
@@ -36,4 +44,19 @@ public class Translator {
 
         return funTr.getProg();
     }
+
+    /**
+     * Number of method calls bound directly, because class hierarchy analysis
+     * found a single implementation.
+     */
+    public int getDirectMethodCalls() {
+        return classTr.getDirectMethodCalls();
+    }
+
+    /**
+     * Number of method calls dispatched through a vtable.
+     */
+    public int getVirtualMethodCalls() {
+        return classTr.getVirtualMethodCalls();
+    }
 }
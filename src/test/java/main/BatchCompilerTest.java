@@ -0,0 +1,71 @@
+package main;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compiles small directories of units with the {@link BatchCompiler}.
+ */
+public class BatchCompilerTest {
+    private static final String PROGRAM = "int main() {\n    printInt(42);\n    return 0;\n}\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void unitsWithTheSameNameAreKeptApart() throws Exception {
+        Path in = folder.newFolder("in").toPath();
+        write(in.resolve("a/x/Foo.java"), PROGRAM);
+        write(in.resolve("b/x/Foo.java"), PROGRAM.replace("42", "43"));
+        Path out = folder.getRoot().toPath().resolve("out");
+
+        int exitCode = BatchCompiler.run(new String[] {"-j", "2", "-o", out.toString(),
+                in.toString()});
+
+        assertEquals(0, exitCode);
+        assertTrue(Files.readString(out.resolve("a_x_Foo.ll")).contains("i32 42"));
+        assertTrue(Files.readString(out.resolve("b_x_Foo.ll")).contains("i32 43"));
+    }
+
+    @Test
+    public void failedUnitWritesDiagnosticsAndOthersContinue() throws Exception {
+        Path in = folder.newFolder("in").toPath();
+        write(in.resolve("Broken.java"), "int main() {\n    return 0\n}\n");
+        write(in.resolve("Good.java"), PROGRAM);
+        Path out = folder.getRoot().toPath().resolve("out");
+
+        int exitCode = BatchCompiler.run(new String[] {"-j", "2", "-o", out.toString(),
+                "--report", in.toString()});
+
+        assertEquals(7, exitCode);
+        assertFalse(Files.exists(out.resolve("Broken.ll")));
+        assertFalse(Files.readAllLines(out.resolve("Broken.diag")).isEmpty());
+        assertTrue(Files.exists(out.resolve("Good.ll")));
+        assertFalse(Files.exists(out.resolve("Good.diag")));
+        // one report per unit and the combined one
+        assertTrue(Files.exists(out.resolve("Broken.report.json")));
+        assertTrue(Files.exists(out.resolve("Good.report.json")));
+        String combined = Files.readString(out.resolve("report.json"));
+        assertTrue(combined, combined.contains("\"units\": 2"));
+    }
+
+    @Test
+    public void inputsGivenTwiceGetNumberedNames() {
+        Path foo = folder.getRoot().toPath().resolve("Foo.java");
+        assertEquals(List.of("Foo", "Foo_2"), BatchCompiler.outputNames(List.of(foo, foo)));
+    }
+
+    private static void write(Path file, String content) throws Exception {
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+}
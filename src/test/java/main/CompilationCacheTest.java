@@ -0,0 +1,132 @@
+package main;
+
+import analysis.TypeError;
+import frontend.SyntaxError;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests the keys, entries and eviction of the {@link CompilationCache}.
+ */
+public class CompilationCacheTest {
+    private static final String PROGRAM = "int main() {\n    printInt(1);\n    return 0;\n}\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keyDependsOnTokensVersionAndConfiguration() {
+        NotQuiteJavaCompiler compiler = new NotQuiteJavaCompiler();
+        String configuration = compiler.configuration();
+        String key = CompilationCache.key(PROGRAM, configuration);
+        assertEquals(key, CompilationCache.key(PROGRAM, configuration));
+        // trailing whitespace does not move any token
+        assertEquals(key, CompilationCache.key(PROGRAM.replace(";\n", ";  \n"), configuration));
+        assertNotEquals(key, CompilationCache.key(PROGRAM.replace("1", "2"), configuration));
+
+        compiler.setOptLevel(OptLevel.O2);
+        assertNotEquals(key, CompilationCache.key(PROGRAM, compiler.configuration()));
+        assertNotEquals(key, CompilationCache.key(PROGRAM,
+                NotQuiteJavaCompiler.VERSION + "-next", configuration));
+    }
+
+    @Test
+    public void llvmCodeIsReturned() throws Exception {
+        CompilationCache cache = new CompilationCache(folder.getRoot().toPath(), 1 << 20);
+        cache.storeLlvmCode("key1", "define i32 @main() {\n}\n");
+        CompilationCache.Entry entry = cache.lookup("key1");
+        assertNotNull(entry);
+        assertEquals("define i32 @main() {\n}\n", entry.getLlvmCode());
+        assertEquals(Collections.emptyList(), entry.getSyntaxErrors());
+        assertEquals(Collections.emptyList(), entry.getTypeErrors());
+    }
+
+    @Test
+    public void streamedLlvmCodeIsCountedInBytes() throws Exception {
+        CompilationCache cache = new CompilationCache(folder.getRoot().toPath(), 1 << 20);
+        cache.storeLlvmCode("key1", out -> {
+            out.write("; \u00e4\n");
+            out.write("define i32 @main() {\n}\n");
+        });
+        CompilationCache.Entry entry = cache.lookup("key1");
+        assertNotNull(entry);
+        assertEquals("; \u00e4\ndefine i32 @main() {\n}\n", entry.getLlvmCode());
+        assertEquals(entry.getLlvmCode().getBytes(StandardCharsets.UTF_8).length,
+                cache.getTotalBytes());
+    }
+
+    @Test
+    public void diagnosticsAreReturnedUnchanged() throws Exception {
+        CompilationCache cache = new CompilationCache(folder.getRoot().toPath(), 1 << 20);
+        List<SyntaxError> syntaxErrors = List.of(
+                new SyntaxError("unexpected \\n in string", 1, 2),
+                new SyntaxError("two\nlines\r\nand \\\\ a tab\t", 3, 4));
+        List<TypeError> typeErrors = List.of(new TypeError("C:\\new\\dir", 5, 6));
+        cache.storeDiagnostics("key1", syntaxErrors, typeErrors);
+
+        CompilationCache.Entry entry = cache.lookup("key1");
+        assertNotNull(entry);
+        assertNull(entry.getLlvmCode());
+        assertEquals(2, entry.getSyntaxErrors().size());
+        for (int i = 0; i < syntaxErrors.size(); i++) {
+            assertDiagnostic(syntaxErrors.get(i), entry.getSyntaxErrors().get(i));
+        }
+        assertEquals(1, entry.getTypeErrors().size());
+        assertDiagnostic(typeErrors.get(0), entry.getTypeErrors().get(0));
+    }
+
+    private static void assertDiagnostic(SyntaxError expected, SyntaxError actual) {
+        assertEquals(expected.getMessage(), actual.getMessage());
+        assertEquals(expected.getLine(), actual.getLine());
+        assertEquals(expected.getColumn(), actual.getColumn());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() throws Exception {
+        CompilationCache cache = new CompilationCache(folder.getRoot().toPath(), 25);
+        cache.storeLlvmCode("key1", "0123456789");
+        cache.storeLlvmCode("key2", "0123456789");
+        assertNotNull(cache.lookup("key1"));
+        cache.storeLlvmCode("key3", "0123456789");
+
+        assertEquals(1, cache.getEvictions());
+        assertEquals(20, cache.getTotalBytes());
+        assertNull(cache.lookup("key2"));
+        assertNotNull(cache.lookup("key1"));
+        assertNotNull(cache.lookup("key3"));
+    }
+
+    @Test
+    public void countersAreUpdated() throws Exception {
+        CompilationCache cache = new CompilationCache(folder.getRoot().toPath(), 1 << 20);
+        assertNull(cache.lookup("key1"));
+        cache.storeLlvmCode("key1", "code");
+        assertNotNull(cache.lookup("key1"));
+        assertNotNull(cache.lookup("key1"));
+        assertNull(cache.lookup("key2"));
+
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    public void entriesSurviveReopening() throws Exception {
+        CompilationCache cache = new CompilationCache(folder.getRoot().toPath(), 1 << 20);
+        cache.storeLlvmCode("key1", "code");
+        CompilationCache reopened = new CompilationCache(folder.getRoot().toPath(), 1 << 20);
+        CompilationCache.Entry entry = reopened.lookup("key1");
+        assertNotNull(entry);
+        assertEquals("code", entry.getLlvmCode());
+    }
+}
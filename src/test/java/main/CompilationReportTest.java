@@ -0,0 +1,18 @@
+package main;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the JSON written by the {@link CompilationReport}.
+ */
+public class CompilationReportTest {
+
+    @Test
+    public void unitNameIsEscaped() {
+        String json = new CompilationReport("dir\\\"a\"\n\r\t\b\f\u0001.java").toJson();
+        String expected = "\"dir\\\\\\\"a\\\"\\n\\r\\t\\b\\f\\u0001.java\"";
+        assertTrue(json, json.contains("\"unit\": " + expected));
+    }
+}
@@ -0,0 +1,110 @@
+package main;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives the line protocol of the {@link CompileServer} over in-memory streams.
+ */
+public class CompileServerTest {
+    private static final String PROGRAM = "int main() {\n    printInt(42);\n    return 0;\n}\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * One answer of the server.
+     */
+    private static class Response {
+        final String status;
+        final String body;
+
+        Response(String status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    @Test
+    public void compileAndStats() throws Exception {
+        String typeError = "int main() {\n    int x;\n    x = true;\n    return 0;\n}\n";
+        List<Response> responses = serve(compile("Good.java", PROGRAM)
+                + compile("Bad.java", typeError)
+                + "STATS\n");
+        assertEquals(3, responses.size());
+        assertEquals("OK", responses.get(0).status);
+        assertTrue(responses.get(0).body, responses.get(0).body.contains("define i32 @main"));
+        assertEquals("ERROR", responses.get(1).status);
+        assertTrue(responses.get(1).body, responses.get(1).body.contains("Error in line 3"));
+        assertEquals("STATS", responses.get(2).status);
+        assertTrue(responses.get(2).body, responses.get(2).body.contains("requests 2\n"));
+        assertTrue(responses.get(2).body, responses.get(2).body.contains("failed 1\n"));
+    }
+
+    @Test
+    public void fileIsReadFromDisk() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("Program.java");
+        Files.writeString(file, PROGRAM);
+        List<Response> responses = serve("FILE " + file + "\nFILE missing.java\n");
+        assertEquals(2, responses.size());
+        assertEquals("OK", responses.get(0).status);
+        assertEquals("ERROR", responses.get(1).status);
+        assertTrue(responses.get(1).body, responses.get(1).body.startsWith("Cannot read"));
+    }
+
+    @Test
+    public void invalidLengthsAreAnsweredWithErrors() throws Exception {
+        List<Response> responses = serve("COMPILE x abc\nCOMPILE x -1\nCOMPILE x\nSTATS\n");
+        assertEquals(4, responses.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(responses.get(i).body, "ERROR", responses.get(i).status);
+        }
+        // the session goes on after the errors
+        assertEquals("STATS", responses.get(3).status);
+    }
+
+    @Test
+    public void quitEndsTheSession() throws Exception {
+        List<Response> responses = serve("STATS\nQUIT\nSTATS\n");
+        assertEquals(1, responses.size());
+    }
+
+    private static String compile(String name, String source) {
+        return "COMPILE " + name + " " + source.getBytes(StandardCharsets.UTF_8).length + "\n"
+                + source;
+    }
+
+    private static List<Response> serve(String requests) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CompileServer().serve(
+                new ByteArrayInputStream(requests.getBytes(StandardCharsets.UTF_8)), out);
+        byte[] bytes = out.toByteArray();
+        List<Response> responses = new ArrayList<>();
+        int pos = 0;
+        while (pos < bytes.length) {
+            int end = pos;
+            while (bytes[end] != '\n') {
+                end++;
+            }
+            String[] header = new String(bytes, pos, end - pos, StandardCharsets.UTF_8)
+                    .split(" ");
+            int length = Integer.parseInt(header[2]);
+            responses.add(new Response(header[0],
+                    new String(bytes, end + 1, length, StandardCharsets.UTF_8)));
+            pos = end + 1 + length;
+        }
+        return responses;
+    }
+}
@@ -0,0 +1,66 @@
+package notquitejava.generator;
+
+import main.NotQuiteJavaCompiler;
+import minillvm.analysis.Checks;
+import notquitejava.translation.TranslationTestHelper;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compiles programs from the {@link ProgramGenerator}.
+ */
+public class GeneratedProgramsTest {
+
+    @Test
+    public void smallProgramBehavesLikeJava() throws Exception {
+        String program = new ProgramGenerator(1)
+                .classes(6)
+                .inheritanceDepth(3)
+                .generate();
+        TranslationTestHelper.testLLVMTranslation("Generated.java", program);
+    }
+
+    @Test
+    public void deepHierarchy() throws Exception {
+        compile(new ProgramGenerator(2)
+                .classes(60)
+                .inheritanceDepth(20)
+                .methodsPerClass(6)
+                .generate());
+    }
+
+    @Test
+    public void deepNesting() throws Exception {
+        compile(new ProgramGenerator(3)
+                .classes(10)
+                .statementsPerMethod(20)
+                .expressionDepth(6)
+                .nestingDepth(5)
+                .generate());
+    }
+
+    /**
+     * The generator produces the configured number of classes, the scaling with the
+     * size is measured by the Scaling benchmark.
+     */
+    @Test
+    public void configuredSizeCompiles() throws Exception {
+        String program = new ProgramGenerator(4)
+                .classes(100)
+                .inheritanceDepth(4)
+                .generate();
+        assertEquals(100, program.lines().filter(l -> l.startsWith("class C")).count());
+        compile(program);
+    }
+
+    private static void compile(String program) throws Exception {
+        NotQuiteJavaCompiler compiler = new NotQuiteJavaCompiler();
+        compiler.compileString("Generated.java", program);
+        assertEquals(Collections.emptyList(), compiler.getSyntaxErrors());
+        assertEquals(Collections.emptyList(), compiler.getTypeErrors());
+        new Checks().checkProgram(compiler.getLlvmProg());
+    }
+}
@@ -0,0 +1,372 @@
+package notquitejava.generator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates large, valid and type-correct NQJ programs for scalability tests.
+ *
+ * <p>Classes are arranged in inheritance chains of the configured depth. Every class
+ * overrides the methods {@code leaf} and {@code m1 .. mN} of its super class, so that
+ * deep hierarchies also produce many overridden methods. The generated programs
+ * always terminate without runtime errors:
+ * <ul>
+ *     <li>{@code mK} only calls {@code leaf} and {@code mJ} with {@code J < K},
+ *     and calls inside loops only go to {@code leaf}, which does not call anything,</li>
+ *     <li>arrays have length 8 and are indexed with constants or loop counters below 8,</li>
+ *     <li>divisors are positive constants.</li>
+ * </ul>
+ *
+ * <p>The same seed and configuration always produce the same program.
+ */
+public class ProgramGenerator {
+    private static final int ARRAY_LENGTH = 8;
+    private static final int LOCALS = 4;
+
+    private final Random random;
+    private int classes = 20;
+    private int inheritanceDepth = 3;
+    private int methodsPerClass = 4;
+    private int statementsPerMethod = 8;
+    private int expressionDepth = 3;
+    private int nestingDepth = 2;
+    private boolean polymorphicReceivers = true;
+
+    private StringBuilder out;
+    private int indent;
+
+    /** State of the method being generated. */
+    private int currentClass;
+    private int currentMethod;
+    private final List<String> activeCounters = new ArrayList<>();
+
+    public ProgramGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /** Number of classes, at least 1. */
+    public ProgramGenerator classes(int classes) {
+        this.classes = Math.max(1, classes);
+        return this;
+    }
+
+    /** Length of the inheritance chains, 1 means no inheritance. */
+    public ProgramGenerator inheritanceDepth(int inheritanceDepth) {
+        this.inheritanceDepth = Math.max(1, inheritanceDepth);
+        return this;
+    }
+
+    /** Methods per class besides the initializer, at least 1. */
+    public ProgramGenerator methodsPerClass(int methodsPerClass) {
+        this.methodsPerClass = Math.max(1, methodsPerClass);
+        return this;
+    }
+
+    /** Top level statements per method body. */
+    public ProgramGenerator statementsPerMethod(int statementsPerMethod) {
+        this.statementsPerMethod = statementsPerMethod;
+        return this;
+    }
+
+    /** Maximum nesting of operators in expressions. */
+    public ProgramGenerator expressionDepth(int expressionDepth) {
+        this.expressionDepth = expressionDepth;
+        return this;
+    }
+
+    /** Maximum nesting of if and while statements. */
+    public ProgramGenerator nestingDepth(int nestingDepth) {
+        this.nestingDepth = nestingDepth;
+        return this;
+    }
+
+    /**
+     * If set, methods are called on receivers whose static type is the root
+     * of the inheritance chain, so the result depends on dynamic dispatch.
+     */
+    public ProgramGenerator polymorphicReceivers(boolean polymorphicReceivers) {
+        this.polymorphicReceivers = polymorphicReceivers;
+        return this;
+    }
+
+    /**
+     * Generates the program.
+     */
+    public String generate() {
+        out = new StringBuilder();
+        indent = 0;
+        generateMain();
+        for (int c = 0; c < classes; c++) {
+            generateFactory(c);
+            generateRunner(c);
+        }
+        for (int c = 0; c < classes; c++) {
+            generateClass(c);
+        }
+        return out.toString();
+    }
+
+    private int superClass(int c) {
+        return c % inheritanceDepth == 0 ? -1 : c - 1;
+    }
+
+    private int rootClass(int c) {
+        return c - c % inheritanceDepth;
+    }
+
+    /** The class and all of its super classes. */
+    private List<Integer> visibleClasses(int c) {
+        List<Integer> result = new ArrayList<>();
+        for (int k = c; k >= 0; k = superClass(k)) {
+            result.add(k);
+        }
+        return result;
+    }
+
+    private void generateMain() {
+        line("int main() {");
+        indent++;
+        line("int sum;");
+        line("sum = 0;");
+        for (int c = 0; c < classes; c++) {
+            line("sum = sum + run" + c + "(sum / 1000);");
+        }
+        line("printInt(sum);");
+        line("return 0;");
+        indent--;
+        line("}");
+        line("");
+    }
+
+    private void generateFactory(int c) {
+        line("C" + c + " make" + c + "() {");
+        indent++;
+        line("C" + c + " o;");
+        line("o = new C" + c + "();");
+        line("o.init" + c + "();");
+        line("return o;");
+        indent--;
+        line("}");
+        line("");
+    }
+
+    private void generateRunner(int c) {
+        int receiverClass = polymorphicReceivers ? rootClass(c) : c;
+        line("int run" + c + "(int seed) {");
+        indent++;
+        line("C" + receiverClass + " o;");
+        line("int r;");
+        line("o = make" + c + "();");
+        line("r = o.leaf(seed, " + c + ");");
+        for (int m = 1; m < methodsPerClass; m++) {
+            line("r = r + o.m" + m + "(r / 3, seed);");
+        }
+        line("return r;");
+        indent--;
+        line("}");
+        line("");
+    }
+
+    private void generateClass(int c) {
+        int sup = superClass(c);
+        line("class C" + c + (sup >= 0 ? " extends C" + sup : "") + " {");
+        indent++;
+        line("int f" + c + ";");
+        line("int[] a" + c + ";");
+        line("");
+
+        // initializer, also initializes the fields of the super classes
+        line("int init" + c + "() {");
+        indent++;
+        if (sup >= 0) {
+            line("this.init" + sup + "();");
+        }
+        line("f" + c + " = " + random.nextInt(100) + ";");
+        line("a" + c + " = new int[" + ARRAY_LENGTH + "];");
+        for (int i = 0; i < ARRAY_LENGTH; i++) {
+            line("a" + c + "[" + i + "] = " + random.nextInt(1000) + ";");
+        }
+        line("return f" + c + ";");
+        indent--;
+        line("}");
+        line("");
+
+        currentClass = c;
+        for (int m = 0; m < methodsPerClass; m++) {
+            currentMethod = m;
+            generateMethod(m == 0 ? "leaf" : "m" + m);
+        }
+        indent--;
+        line("}");
+        line("");
+    }
+
+    private void generateMethod(String name) {
+        line("int " + name + "(int x, int y) {");
+        indent++;
+        for (int v = 0; v < LOCALS; v++) {
+            line("int v" + v + ";");
+        }
+        line("boolean b0;");
+        for (int d = 0; d < nestingDepth; d++) {
+            line("int i" + d + ";");
+        }
+        for (int v = 0; v < LOCALS; v++) {
+            line("v" + v + " = " + random.nextInt(50) + ";");
+        }
+        line("b0 = " + random.nextBoolean() + ";");
+        for (int d = 0; d < nestingDepth; d++) {
+            line("i" + d + " = 0;");
+        }
+        activeCounters.clear();
+        for (int s = 0; s < statementsPerMethod; s++) {
+            generateStatement(0);
+        }
+        line("return " + intExpr(expressionDepth) + ";");
+        indent--;
+        line("}");
+        line("");
+    }
+
+    private void generateStatement(int nesting) {
+        int choice = random.nextInt(100);
+        boolean canNest = nesting < nestingDepth;
+        if (choice < 40) {
+            line("v" + random.nextInt(LOCALS) + " = " + intExpr(expressionDepth) + ";");
+        } else if (choice < 50) {
+            line("this.f" + randomVisibleClass() + " = " + intExpr(expressionDepth) + ";");
+        } else if (choice < 60) {
+            line("this.a" + randomVisibleClass() + "[" + index() + "] = "
+                    + intExpr(expressionDepth) + ";");
+        } else if (choice < 65) {
+            line("b0 = " + boolExpr(expressionDepth) + ";");
+        } else if (choice < 80 && canNest) {
+            line("if (" + boolExpr(expressionDepth) + ") {");
+            generateBlock(nesting);
+            line("} else {");
+            generateBlock(nesting);
+            line("}");
+        } else if (choice < 90 && canNest) {
+            String counter = "i" + nesting;
+            line(counter + " = 0;");
+            line("while (" + counter + " < " + (1 + random.nextInt(ARRAY_LENGTH)) + ") {");
+            activeCounters.add(counter);
+            generateBlock(nesting);
+            indent++;
+            line(counter + " = " + counter + " + 1;");
+            indent--;
+            activeCounters.remove(counter);
+            line("}");
+        } else {
+            line("v" + random.nextInt(LOCALS) + " = " + call(expressionDepth - 1) + ";");
+        }
+    }
+
+    private void generateBlock(int nesting) {
+        indent++;
+        int count = 1 + random.nextInt(3);
+        for (int i = 0; i < count; i++) {
+            generateStatement(nesting + 1);
+        }
+        indent--;
+    }
+
+    /** A class whose fields are visible in the current class, accessed via this. */
+    private int randomVisibleClass() {
+        List<Integer> visible = visibleClasses(currentClass);
+        return visible.get(random.nextInt(visible.size()));
+    }
+
+    /** An array index that is always in bounds. */
+    private String index() {
+        if (!activeCounters.isEmpty() && random.nextBoolean()) {
+            // counters of enclosing loops are below the array length
+            return activeCounters.get(random.nextInt(activeCounters.size()));
+        }
+        return Integer.toString(random.nextInt(ARRAY_LENGTH));
+    }
+
+    private String intExpr(int depth) {
+        if (depth <= 0 || random.nextInt(10) < 3) {
+            return intLeaf();
+        }
+        int choice = random.nextInt(100);
+        if (choice < 25) {
+            return "(" + intExpr(depth - 1) + " + " + intExpr(depth - 1) + ")";
+        } else if (choice < 45) {
+            return "(" + intExpr(depth - 1) + " - " + intExpr(depth - 1) + ")";
+        } else if (choice < 65) {
+            return "(" + intExpr(depth - 1) + " * " + intExpr(depth - 1) + ")";
+        } else if (choice < 80) {
+            return "(" + intExpr(depth - 1) + " / " + (1 + random.nextInt(9)) + ")";
+        } else if (choice < 85) {
+            return "(-" + intExpr(depth - 1) + ")";
+        } else if (choice < 95) {
+            return call(depth - 1);
+        }
+        return intLeaf();
+    }
+
+    private String intLeaf() {
+        switch (random.nextInt(7)) {
+            case 0:
+                return Integer.toString(random.nextInt(100));
+            case 1:
+                return "x";
+            case 2:
+                return "y";
+            case 3:
+            case 4:
+                return "v" + random.nextInt(LOCALS);
+            case 5:
+                return "this.f" + randomVisibleClass();
+            default:
+                int c = randomVisibleClass();
+                return random.nextBoolean()
+                        ? "this.a" + c + "[" + index() + "]"
+                        : "this.a" + c + ".length";
+        }
+    }
+
+    /**
+     * A call that cannot recurse: leaf calls nothing, other methods only call
+     * leaf or methods with a smaller number, and never from inside a loop.
+     */
+    private String call(int depth) {
+        String args = "(" + intExpr(depth) + ", " + intExpr(depth) + ")";
+        if (currentMethod == 0) {
+            // leaf methods do not call other methods
+            return intLeaf();
+        }
+        if (!activeCounters.isEmpty() || currentMethod == 1 || random.nextInt(3) == 0) {
+            return "this.leaf" + args;
+        }
+        return "this.m" + (1 + random.nextInt(currentMethod - 1)) + args;
+    }
+
+    private String boolExpr(int depth) {
+        if (depth <= 0) {
+            return random.nextBoolean() ? "b0" : Boolean.toString(random.nextBoolean());
+        }
+        switch (random.nextInt(5)) {
+            case 0:
+                return "(" + intExpr(depth - 1) + " < " + intExpr(depth - 1) + ")";
+            case 1:
+                return "(" + intExpr(depth - 1) + " == " + intExpr(depth - 1) + ")";
+            case 2:
+                return "(" + boolExpr(depth - 1) + " && " + boolExpr(depth - 1) + ")";
+            case 3:
+                return "!" + boolExpr(depth - 1);
+            default:
+                return boolExpr(0);
+        }
+    }
+
+    private void line(String s) {
+        for (int i = 0; i < indent; i++) {
+            out.append("    ");
+        }
+        out.append(s).append('\n');
+    }
+}
@@ -1,5 +1,7 @@
 package notquitejava.translation;
 
+import main.NotQuiteJavaCompiler;
+import main.OptLevel;
 import org.junit.AfterClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -39,6 +41,28 @@ public class FileTranslationTest {
 		TranslationTestHelper.testLLVMTranslation(inputFile.getName(), input);
 	}
 
+	@Test
+	public void testOptimizedTranslation() throws Exception {
+		String input = Files.readString(inputFile.toPath());
+		TranslationTestHelper.testLLVMTranslation(inputFile.getName(), input, OptLevel.O3);
+	}
+
+	@Test
+	public void testDirectSsaTranslation() throws Exception {
+		String input = Files.readString(inputFile.toPath());
+		NotQuiteJavaCompiler compiler = new NotQuiteJavaCompiler();
+		compiler.setDirectSsa(true);
+		TranslationTestHelper.testLLVMTranslation(inputFile.getName(), input, compiler);
+	}
+
+	@Test
+	public void testArenaTranslation() throws Exception {
+		String input = Files.readString(inputFile.toPath());
+		NotQuiteJavaCompiler compiler = new NotQuiteJavaCompiler();
+		compiler.setArenaAllocation(true);
+		TranslationTestHelper.testLLVMTranslation(inputFile.getName(), input, compiler);
+	}
+
 
 	@Parameterized.Parameters(name = "{0}")
 	public static Collection<Object[]> data() {
@@ -0,0 +1,307 @@
+package notquitejava.translation;
+
+import main.NotQuiteJavaCompiler;
+import main.OptLevel;
+import minillvm.analysis.Checks;
+import minillvm.analysis.PassStatistics;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the optimization passes change what they should,
+ * and that the optimized programs still behave like the Java programs.
+ */
+public class OptimizationTests {
+
+    @Test
+    public void nullChecksOfThisAreRemoved() throws Exception {
+        String program = String.join("\n",
+                "int main() {",
+                "    Counter c;",
+                "    c = new Counter();",
+                "    printInt(c.inc(3));",
+                "    printInt(c.inc(4));",
+                "    return 0;",
+                "}",
+                "class Counter {",
+                "    int count;",
+                "    int inc(int n) {",
+                "        this.count = this.count + n;",
+                "        return this.count;",
+                "    }",
+                "}");
+        PassStatistics statistics = optimize(program, OptLevel.O2);
+        // the field accesses through this and the calls on the new object
+        assertTrue(statistics.toString(),
+                statistics.get("nullcheck-elim", "Counter_inc", "removed") >= 2);
+        assertTrue(statistics.toString(),
+                statistics.get("nullcheck-elim", "main", "removed") >= 2);
+        TranslationTestHelper.testLLVMTranslation("NullChecks.java", program, OptLevel.O2);
+    }
+
+    @Test
+    public void nullCheckOfNullIsKept() throws Exception {
+        String program = String.join("\n",
+                "int main() {",
+                "    Counter c;",
+                "    c = new Counter();",
+                "    printInt(c.inc(3));",
+                "    c = null;",
+                "    printInt(c.inc(4));",
+                "    return 0;",
+                "}",
+                "class Counter {",
+                "    int count;",
+                "    int inc(int n) {",
+                "        count = count + n;",
+                "        return count;",
+                "    }",
+                "}");
+        TranslationTestHelper.testLLVMTranslation("NullCheckKept.java", program, OptLevel.O2);
+    }
+
+    @Test
+    public void boundsChecksInCountedLoopsAreRemoved() throws Exception {
+        String program = String.join("\n",
+                "int main() {",
+                "    int[] a;",
+                "    int i;",
+                "    int sum;",
+                "    a = new int[10];",
+                "    i = 0;",
+                "    while (i < a.length) {",
+                "        a[i] = i * i;",
+                "        i = i + 1;",
+                "    }",
+                "    sum = 0;",
+                "    i = 0;",
+                "    while (i < a.length) {",
+                "        sum = sum + a[i];",
+                "        i = i + 1;",
+                "    }",
+                "    printInt(sum);",
+                "    printInt(a[9]);",
+                "    return 0;",
+                "}");
+        PassStatistics statistics = optimize(program, OptLevel.O2);
+        assertEquals(statistics.toString(),
+                2, statistics.get("boundscheck-elim", "main", "eliminated"));
+        // a[9] keeps the upper half of its check
+        assertEquals(statistics.toString(),
+                1, statistics.get("boundscheck-elim", "main", "narrowed"));
+        TranslationTestHelper.testLLVMTranslation("BoundsChecks.java", program, OptLevel.O2);
+    }
+
+    @Test
+    public void boundsCheckOutsideOfGuardIsKept() throws Exception {
+        String program = String.join("\n",
+                "int main() {",
+                "    int[] a;",
+                "    int i;",
+                "    a = new int[3];",
+                "    i = 0;",
+                "    while (i < 5) {",
+                "        a[i] = i;",
+                "        printInt(i);",
+                "        i = i + 1;",
+                "    }",
+                "    return 0;",
+                "}");
+        TranslationTestHelper.testLLVMTranslation("BoundsCheckKept.java", program, OptLevel.O2);
+    }
+
+    @Test
+    public void constantsAreFolded() throws Exception {
+        String program = String.join("\n",
+                "int main() {",
+                "    int x;",
+                "    int i;",
+                "    x = 3 * 4 + 2;",
+                "    i = 0;",
+                "    while (i < 3) {",
+                "        if (x < 10) {",
+                "            printInt(0);",
+                "        } else {",
+                "            printInt(x / 2);",
+                "        }",
+                "        i = i + 1;",
+                "    }",
+                "    return 0;",
+                "}");
+        PassStatistics statistics = optimize(program, OptLevel.O2);
+        assertTrue(statistics.toString(), statistics.get("sccp", "main", "folded") > 0);
+        // the if, and the zero and overflow checks of x / 2
+        assertEquals(statistics.toString(), 3, statistics.get("sccp", "main", "branches"));
+        assertTrue(statistics.toString(), statistics.get("sccp", "main", "blocks") > 0);
+        TranslationTestHelper.testLLVMTranslation("ConstantFolding.java", program, OptLevel.O2);
+    }
+
+    @Test
+    public void deadBlocksAreRemoved() throws Exception {
+        String program = String.join("\n",
+                "int main() {",
+                "    printInt(sign(5));",
+                "    printInt(sign(0 - 5));",
+                "    return 0;",
+                "}",
+                "int sign(int x) {",
+                "    if (x < 0) {",
+                "        return 0 - 1;",
+                "    } else {",
+                "        if (0 < x) {",
+                "            return 1;",
+                "        } else {",
+                "            return 0;",
+                "        }",
+                "    }",
+                "}");
+        PassStatistics statistics = optimize(program, OptLevel.O1);
+        // the blocks after the if statements
+        assertTrue(statistics.toString(), statistics.get("dce", "sign", "unreachable") > 0);
+        assertTrue(statistics.toString(), statistics.get("dce", "main", "merged") > 0);
+        TranslationTestHelper.testLLVMTranslation("DeadBlocks.java", program, OptLevel.O1);
+    }
+
+    @Test
+    public void smallProceduresAreInlined() throws Exception {
+        String program = String.join("\n",
+                "int main() {",
+                "    Point p;",
+                "    p = new Point();",
+                "    p.setX(fib(10));",
+                "    printInt(p.getX());",
+                "    return 0;",
+                "}",
+                "int fib(int n) {",
+                "    if (n < 2) {",
+                "        return n;",
+                "    }",
+                "    return fib(n - 1) + fib(n - 2);",
+                "}",
+                "class Point {",
+                "    int x;",
+                "    int getX() {",
+                "        return x;",
+                "    }",
+                "    int setX(int x) {",
+                "        this.x = x;",
+                "        return 0;",
+                "    }",
+                "}");
+        PassStatistics statistics = optimize(program, OptLevel.O3);
+        assertEquals(statistics.toString(), 1, statistics.get("inline", "main", "Point_getX"));
+        assertEquals(statistics.toString(), 1, statistics.get("inline", "main", "Point_setX"));
+        assertEquals(statistics.toString(),
+                1, statistics.get("inline", "main", "Point_Create_Default"));
+        // recursive
+        assertEquals(statistics.toString(), 0, statistics.get("inline", "main", "fib"));
+        TranslationTestHelper.testLLVMTranslation("Inlining.java", program, OptLevel.O3);
+    }
+
+    @Test
+    public void localObjectsAreAllocatedOnTheStack() throws Exception {
+        String program = String.join("\n",
+                "int main() {",
+                "    int i;",
+                "    int sum;",
+                "    Point p;",
+                "    Point kept;",
+                "    i = 0;",
+                "    sum = 0;",
+                "    kept = new Point();",
+                "    while (i < 5) {",
+                "        p = new Point();",
+                "        p.init(i, i + 1);",
+                "        sum = sum + p.sum();",
+                "        kept.init(sum, i);",
+                "        i = i + 1;",
+                "    }",
+                "    printInt(sum);",
+                "    printInt(kept.sum());",
+                "    printInt(escaping().sum());",
+                "    return 0;",
+                "}",
+                "Point escaping() {",
+                "    Point p;",
+                "    p = new Point();",
+                "    p.init(1, 2);",
+                "    return p;",
+                "}",
+                "class Point {",
+                "    int x;",
+                "    int y;",
+                "    int init(int x, int y) {",
+                "        this.x = x;",
+                "        this.y = y;",
+                "        return 0;",
+                "    }",
+                "    int sum() {",
+                "        return x + y;",
+                "    }",
+                "}");
+        PassStatistics statistics = optimize(program, OptLevel.O3);
+        // p and kept, the object returned by escaping is on the heap
+        assertTrue(statistics.toString(), statistics.get("escape", "main", "stack") >= 2);
+        assertEquals(statistics.toString(), 0, statistics.get("escape", "escaping", "stack"));
+        TranslationTestHelper.testLLVMTranslation("StackAllocation.java", program, OptLevel.O3);
+    }
+
+    @Test
+    public void attributesAreInferred() throws Exception {
+        String program = String.join("\n",
+                "int main() {",
+                "    Point p;",
+                "    p = new Point();",
+                "    printInt(p.getX());",
+                "    return 0;",
+                "}",
+                "class Point {",
+                "    int x;",
+                "    int getX() {",
+                "        return x;",
+                "    }",
+                "}");
+        PassStatistics statistics = optimize(program, OptLevel.O2);
+        assertEquals(statistics.toString(), 1, statistics.get("attributes", "main", "nounwind"));
+        assertEquals(statistics.toString(), 1,
+                statistics.get("attributes", "Point_getX", "nonnull"));
+        assertEquals(statistics.toString(), 1,
+                statistics.get("attributes", "Point_getX", "readonly"));
+        assertEquals(statistics.toString(), 1,
+                statistics.get("attributes", "Point_Create_Default", "noalias"));
+        assertEquals(statistics.toString(), 0, statistics.get("attributes", "main", "readonly"));
+        TranslationTestHelper.testLLVMTranslation("Attributes.java", program, OptLevel.O2);
+    }
+
+    @Test
+    public void checkedAccessesAreMarkedForLlvm() throws Exception {
+        String program = String.join("\n",
+                "int main() {",
+                "    int[] a;",
+                "    a = new int[3];",
+                "    a[1] = 7;",
+                "    printInt(a[1] / a[1]);",
+                "    return 0;",
+                "}");
+        NotQuiteJavaCompiler compiler = new NotQuiteJavaCompiler();
+        compiler.compileString("Marked.java", program);
+        String llvm = compiler.getLlvmProg().toString();
+        assertTrue(llvm, llvm.contains("getelementptr inbounds"));
+        assertTrue(llvm, llvm.contains("!{!\"branch_weights\", i32 1, i32 2000}"));
+        TranslationTestHelper.testLLVMTranslation("Marked.java", program);
+    }
+
+    static PassStatistics optimize(String program, OptLevel level) throws Exception {
+        NotQuiteJavaCompiler compiler = new NotQuiteJavaCompiler();
+        compiler.setOptLevel(level);
+        compiler.compileString("Optimized.java", program);
+        assertEquals(Collections.emptyList(), compiler.getSyntaxErrors());
+        assertEquals(Collections.emptyList(), compiler.getTypeErrors());
+        new Checks().checkProgram(compiler.getLlvmProg());
+        return compiler.getPassStatistics();
+    }
+}
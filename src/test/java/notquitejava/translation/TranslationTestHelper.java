@@ -1,6 +1,7 @@
 package notquitejava.translation;
 
 import main.NotQuiteJavaCompiler;
+import main.OptLevel;
 import nqjtooling.transpiler.main.NQJTranspiler;
 import notquitejava.ast.NQJProgram;
 import minillvm.analysis.Checks;
@@ -100,7 +101,23 @@ public class TranslationTestHelper {
 
 
 	public static void testLLVMTranslation(String inputName, String miniJavaProgram) throws Exception {
+		testLLVMTranslation(inputName, miniJavaProgram, OptLevel.O0);
+	}
+
+	/**
+	 * Like {@link #testLLVMTranslation(String, String)}, with the passes of the given level.
+	 */
+	public static void testLLVMTranslation(String inputName, String miniJavaProgram, OptLevel level) throws Exception {
 		NotQuiteJavaCompiler compiler = new NotQuiteJavaCompiler();
+		compiler.setOptLevel(level);
+		testLLVMTranslation(inputName, miniJavaProgram, compiler);
+	}
+
+	/**
+	 * Like {@link #testLLVMTranslation(String, String)}, with a configured compiler.
+	 */
+	public static void testLLVMTranslation(String inputName, String miniJavaProgram, NotQuiteJavaCompiler compiler) throws Exception {
+		OptLevel level = compiler.getOptLevel();
 		compiler.compileString(inputName, miniJavaProgram);
 		assertEquals(Collections.emptyList(), compiler.getSyntaxErrors());
 		assertEquals(Collections.emptyList(), compiler.getTypeErrors());
@@ -109,7 +126,10 @@ public class TranslationTestHelper {
 
 		String llvmOut = llvmProg.toString();
 
-		File llvmOutFile = new File(testOutputFolder, inputName.replace(".java", "") + ".ll");
+		File llvmOutFile = new File(testOutputFolder, inputName.replace(".java", "")
+				+ (level == OptLevel.O0 ? "" : "_" + level)
+				+ (compiler.isDirectSsa() ? "_ssa" : "")
+				+ (compiler.isArenaAllocation() ? "_arena" : "") + ".ll");
 		Files.write(llvmOutFile.toPath(), llvmOut.getBytes(StandardCharsets.UTF_8));
 
 		// check llvm prog
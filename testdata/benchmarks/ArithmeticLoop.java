@@ -0,0 +1,40 @@
+// tight arithmetic loops: collatz sequence lengths and an integer hash
+
+int main() {
+    int i;
+    int n;
+    int steps;
+    int maxSteps;
+    int hash;
+    maxSteps = 0;
+    i = 1;
+    while (i < 300000) {
+        n = i;
+        steps = 0;
+        while (1 < n) {
+            if (n / 2 * 2 == n) {
+                n = n / 2;
+            } else {
+                n = 3 * n + 1;
+            }
+            steps = steps + 1;
+        }
+        if (maxSteps < steps) {
+            maxSteps = steps;
+        } else {
+            maxSteps = maxSteps;
+        }
+        i = i + 1;
+    }
+    printInt(maxSteps);
+
+    hash = 7;
+    i = 0;
+    while (i < 20000000) {
+        hash = hash * 31 + i;
+        hash = hash - hash / 65536 * 3;
+        i = i + 1;
+    }
+    printInt(hash);
+    return 0;
+}
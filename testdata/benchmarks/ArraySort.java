@@ -0,0 +1,125 @@
+// sorts pseudo random arrays with quicksort and insertion sort
+
+int main() {
+    int[] a;
+    int[] b;
+    int n;
+    int round;
+    int checksum;
+    n = 20000;
+    round = 0;
+    checksum = 0;
+    while (round < 5) {
+        a = randomArray(n, round + 17);
+        quicksort(a, 0, n - 1);
+        checksum = checksum + check(a);
+        b = randomArray(n / 10, round + 5);
+        insertionSort(b);
+        checksum = checksum + check(b);
+        round = round + 1;
+    }
+    printInt(checksum);
+    return 0;
+}
+
+int[] randomArray(int n, int seed) {
+    int[] a;
+    int i;
+    int x;
+    a = new int[n];
+    x = seed;
+    i = 0;
+    while (i < n) {
+        x = mod(x * 1103515245 + 12345, 1000003);
+        if (x < 0) {
+            x = 0 - x;
+        } else {
+            x = x;
+        }
+        a[i] = x;
+        i = i + 1;
+    }
+    return a;
+}
+
+int mod(int a, int b) {
+    return a - (a / b) * b;
+}
+
+int quicksort(int[] a, int lo, int hi) {
+    int pivot;
+    int i;
+    int j;
+    int tmp;
+    if (lo < hi) {
+        pivot = a[(lo + hi) / 2];
+        i = lo;
+        j = hi;
+        while (i < j + 1) {
+            while (a[i] < pivot) {
+                i = i + 1;
+            }
+            while (pivot < a[j]) {
+                j = j - 1;
+            }
+            if (i < j + 1) {
+                tmp = a[i];
+                a[i] = a[j];
+                a[j] = tmp;
+                i = i + 1;
+                j = j - 1;
+            } else {
+                tmp = 0;
+            }
+        }
+        tmp = quicksort(a, lo, j);
+        tmp = quicksort(a, i, hi);
+    } else {
+        tmp = 0;
+    }
+    return 0;
+}
+
+int insertionSort(int[] a) {
+    int i;
+    int j;
+    int x;
+    boolean moving;
+    i = 1;
+    while (i < a.length) {
+        x = a[i];
+        j = i - 1;
+        moving = true;
+        while (moving) {
+            if (j < 0) {
+                moving = false;
+            } else if (x < a[j]) {
+                a[j + 1] = a[j];
+                j = j - 1;
+            } else {
+                moving = false;
+            }
+        }
+        a[j + 1] = x;
+        i = i + 1;
+    }
+    return 0;
+}
+
+// returns the sum of the array, or -1 if it is not sorted
+int check(int[] a) {
+    int i;
+    int sum;
+    sum = a[0];
+    i = 1;
+    while (i < a.length) {
+        if (a[i] < a[i - 1]) {
+            sum = 0 - 1;
+            i = a.length;
+        } else {
+            sum = mod(sum + a[i], 1000000007);
+            i = i + 1;
+        }
+    }
+    return sum;
+}
@@ -0,0 +1,108 @@
+// object heavy linked lists: building, reversing, filtering and summing
+
+int main() {
+    List l;
+    List evens;
+    int round;
+    int total;
+    total = 0;
+    round = 0;
+    while (round < 20) {
+        l = new List();
+        l.fill(50000, round);
+        l.reverse();
+        evens = l.filterEven();
+        total = total + l.sum() / 100 + evens.size() + evens.first();
+        round = round + 1;
+    }
+    printInt(total);
+    return 0;
+}
+
+class Cell {
+    int value;
+    Cell next;
+}
+
+class List {
+    Cell head;
+    int length;
+
+    int fill(int n, int seed) {
+        int i;
+        Cell c;
+        i = 0;
+        while (i < n) {
+            c = new Cell();
+            c.value = i * 31 + seed;
+            c.next = head;
+            head = c;
+            length = length + 1;
+            i = i + 1;
+        }
+        return length;
+    }
+
+    int reverse() {
+        Cell prev;
+        Cell cur;
+        Cell next;
+        prev = null;
+        cur = head;
+        while (!(cur == null)) {
+            next = cur.next;
+            cur.next = prev;
+            prev = cur;
+            cur = next;
+        }
+        head = prev;
+        return 0;
+    }
+
+    List filterEven() {
+        List result;
+        Cell cur;
+        Cell c;
+        result = new List();
+        cur = head;
+        while (!(cur == null)) {
+            if (cur.value / 2 * 2 == cur.value) {
+                c = new Cell();
+                c.value = cur.value;
+                c.next = result.head;
+                result.head = c;
+                result.length = result.length + 1;
+            } else {
+                c = null;
+            }
+            cur = cur.next;
+        }
+        return result;
+    }
+
+    int sum() {
+        int s;
+        Cell cur;
+        s = 0;
+        cur = head;
+        while (!(cur == null)) {
+            s = s + cur.value;
+            cur = cur.next;
+        }
+        return s;
+    }
+
+    int size() {
+        return length;
+    }
+
+    int first() {
+        int r;
+        if (head == null) {
+            r = 0;
+        } else {
+            r = head.value;
+        }
+        return r;
+    }
+}
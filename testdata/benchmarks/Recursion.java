@@ -0,0 +1,48 @@
+// recursive functions: fibonacci, ackermann and greatest common divisor
+
+int main() {
+    int i;
+    int sum;
+    printInt(fib(30));
+    printInt(ack(2, 2000));
+    sum = 0;
+    i = 1;
+    while (i < 200000) {
+        sum = sum + gcd(i * 7919, 104729 + i);
+        i = i + 1;
+    }
+    printInt(sum);
+    return 0;
+}
+
+int fib(int n) {
+    int r;
+    if (n < 2) {
+        r = n;
+    } else {
+        r = fib(n - 1) + fib(n - 2);
+    }
+    return r;
+}
+
+int ack(int m, int n) {
+    int r;
+    if (m == 0) {
+        r = n + 1;
+    } else if (n == 0) {
+        r = ack(m - 1, 1);
+    } else {
+        r = ack(m - 1, ack(m, n - 1));
+    }
+    return r;
+}
+
+int gcd(int a, int b) {
+    int r;
+    if (b == 0) {
+        r = a;
+    } else {
+        r = gcd(b, a - (a / b) * b);
+    }
+    return r;
+}
@@ -0,0 +1,127 @@
+// builds binary search trees and traverses them recursively
+
+int main() {
+    Node root;
+    int i;
+    int x;
+    int round;
+    int total;
+    total = 0;
+    round = 0;
+    while (round < 10) {
+        root = new Node();
+        root.init(500000);
+        x = round + 1;
+        i = 0;
+        while (i < 20000) {
+            x = x * 1664525 + 1013904223;
+            root.insert(mod(x, 1000000));
+            i = i + 1;
+        }
+        total = total + root.sum() / 1000 + root.height() + root.count();
+        round = round + 1;
+    }
+    printInt(total);
+    return 0;
+}
+
+int mod(int a, int b) {
+    int r;
+    r = a - (a / b) * b;
+    if (r < 0) {
+        r = r + b;
+    } else {
+        r = r;
+    }
+    return r;
+}
+
+class Node {
+    Node left;
+    Node right;
+    int key;
+
+    int init(int k) {
+        key = k;
+        left = null;
+        right = null;
+        return 0;
+    }
+
+    int insert(int k) {
+        Node n;
+        if (k < key) {
+            if (left == null) {
+                n = new Node();
+                n.init(k);
+                left = n;
+            } else {
+                left.insert(k);
+            }
+        } else {
+            if (right == null) {
+                n = new Node();
+                n.init(k);
+                right = n;
+            } else {
+                right.insert(k);
+            }
+        }
+        return 0;
+    }
+
+    int sum() {
+        int s;
+        s = key;
+        if (!(left == null)) {
+            s = s + left.sum();
+        } else {
+            s = s;
+        }
+        if (!(right == null)) {
+            s = s + right.sum();
+        } else {
+            s = s;
+        }
+        return s;
+    }
+
+    int count() {
+        int c;
+        c = 1;
+        if (!(left == null)) {
+            c = c + left.count();
+        } else {
+            c = c;
+        }
+        if (!(right == null)) {
+            c = c + right.count();
+        } else {
+            c = c;
+        }
+        return c;
+    }
+
+    int height() {
+        int l;
+        int r;
+        l = 0;
+        r = 0;
+        if (!(left == null)) {
+            l = left.height();
+        } else {
+            l = 0;
+        }
+        if (!(right == null)) {
+            r = right.height();
+        } else {
+            r = 0;
+        }
+        if (l < r) {
+            l = r;
+        } else {
+            l = l;
+        }
+        return l + 1;
+    }
+}
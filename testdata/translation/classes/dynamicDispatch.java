@@ -0,0 +1,60 @@
+// Tests dynamic dispatch of overridden methods.
+
+int main() {
+    Shape s;
+    Square q;
+    int total;
+
+    total = 0;
+    s = new Shape();
+    total = total + s.area();       // 0
+    s = new Square();
+    s.setSize(3);
+    total = total + s.area();       // 9
+    printInt(s.describe());         // 9
+    s = new Cube();
+    s.setSize(2);
+    printInt(s.area());             // 24
+    printInt(s.describe());         // 24
+    q = new Cube();
+    q.setSize(1);
+    printInt(q.area());             // 6
+    printInt(q.sides());            // 4
+    printInt(total);                // 9
+    return 0;
+}
+
+class Shape {
+    int size;
+
+    int setSize(int s) {
+        size = s;
+        return 0;
+    }
+
+    int area() {
+        return 0;
+    }
+
+    // implicit call on this, dispatches to the subclass
+    int describe() {
+        return area();
+    }
+}
+
+class Square extends Shape {
+    int area() {
+        return size * size;
+    }
+
+    // not overridden, so calls are bound directly
+    int sides() {
+        return 4;
+    }
+}
+
+class Cube extends Square {
+    int area() {
+        return 6 * size * size;
+    }
+}